@@ -0,0 +1,37 @@
+package lab5;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link Utils#distance}, used by circle previews and polygon closing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+    /** Coordinates of the measured points, kept in fields so they are not constant folded. */
+    double x0 = 12.5, y0 = 40.25, x1 = 731.0, y1 = 402.75;
+
+    /**
+     * Measures the distance between two points.
+     *
+     * @return the distance
+     */
+    @Benchmark
+    public double distance() {
+        return Utils.distance(x0, y0, x1, y1);
+    }
+}
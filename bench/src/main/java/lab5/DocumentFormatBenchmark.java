@@ -0,0 +1,87 @@
+package lab5;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks saving and loading drawings of various sizes in the binary file format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class DocumentFormatBenchmark {
+    /** Number of shapes in the drawing. */
+    @Param({"1000", "100000", "1000000"})
+    int shapes;
+
+    /** The saved drawing. */
+    private Utils.ShapeRepr[] drawing;
+    /** A file holding the saved drawing, read by the load benchmark. */
+    private File saved;
+    /** The file written by the save benchmark. */
+    private File target;
+
+    /**
+     * Generates the drawing and saves it for the load benchmark.
+     *
+     * @throws IOException if saving fails
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        drawing = Drawings.random(shapes, 42);
+        saved = File.createTempFile("bench-load", ".kpl");
+        target = File.createTempFile("bench-save", ".kpl");
+        DocumentFormat.write(saved, drawing);
+    }
+
+    /**
+     * Deletes the benchmark files.
+     *
+     * @throws IOException if deleting fails
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved.toPath());
+        Files.deleteIfExists(target.toPath());
+    }
+
+    /**
+     * Saves the whole drawing.
+     *
+     * @throws IOException if saving fails
+     */
+    @Benchmark
+    public void save() throws IOException {
+        DocumentFormat.write(target, drawing);
+    }
+
+    /**
+     * Loads the whole drawing.
+     *
+     * @return the loaded shape representations
+     * @throws IOException if loading fails
+     */
+    @Benchmark
+    public Utils.ShapeRepr[] load() throws IOException {
+        return DocumentFormat.read(saved);
+    }
+}
@@ -0,0 +1,76 @@
+package lab5;
+
+import java.util.Random;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Static class generating reproducible random drawings for the benchmarks.
+ */
+public class Drawings {
+    private Drawings() {}
+
+    /**
+     * Generates representations of a random drawing of circles, rectangles and small polygons,
+     * scattered over a 1600x900 canvas.
+     *
+     * @param count number of shapes
+     * @param seed  seed of the random generator
+     * @return shape representations, bottom to top
+     */
+    public static Utils.ShapeRepr[] random(int count, long seed) {
+        Random random = new Random(seed);
+        Utils.ShapeRepr[] shapes = new Utils.ShapeRepr[count];
+        for (int i = 0; i < count; i++) {
+            Utils.ShapeRepr repr = new Utils.ShapeRepr();
+            repr.color = Utils.toRgba(Color.hsb(random.nextDouble() * 360, 1, 1));
+            repr.x = random.nextDouble() * 1600;
+            repr.y = random.nextDouble() * 900;
+            repr.angle = random.nextDouble() * 360;
+            repr.scale = 0.5 + random.nextDouble();
+            switch (i % 3) {
+                case 0 -> {
+                    repr.shapeType = Circle.class;
+                    repr.angle = 0;
+                    repr.scale = 1;
+                    repr.args = new double[]{5 + random.nextDouble() * 30};
+                }
+                case 1 -> {
+                    repr.shapeType = Rectangle.class;
+                    repr.args = new double[]{5 + random.nextDouble() * 60, 5 + random.nextDouble() * 60};
+                }
+                default -> {
+                    repr.shapeType = Polygon.class;
+                    repr.args = polygonArgs(random, 3 + random.nextInt(6), 40);
+                }
+            }
+            shapes[i] = repr;
+        }
+        return shapes;
+    }
+
+    /**
+     * Generates polygon arguments: the centroid followed by vertices on a noisy circle.
+     *
+     * @param random   the random generator
+     * @param vertices number of vertices
+     * @param radius   mean distance of the vertices from the origin
+     * @return polygon arguments as stored in {@link Utils.ShapeRepr#args}
+     */
+    public static double[] polygonArgs(Random random, int vertices, double radius) {
+        double[] args = new double[2 + 2*vertices];
+        double cx = 0;
+        double cy = 0;
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double r = radius * (0.5 + random.nextDouble());
+            args[2 + 2*i] = r * Math.cos(angle);
+            args[3 + 2*i] = r * Math.sin(angle);
+            cx += args[2 + 2*i];
+            cy += args[3 + 2*i];
+        }
+        args[0] = cx / vertices;
+        args[1] = cy / vertices;
+        return args;
+    }
+}
@@ -0,0 +1,71 @@
+package lab5;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.shape.Shape;
+
+/**
+ * Benchmarks EDIT-mode selection as done by {@code App.Canvas}: a spatial index
+ * point query followed by exact hit tests of the candidates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class HitTestBenchmark {
+    /** Number of shapes on the canvas. */
+    @Param({"1000", "100000"})
+    int shapes;
+
+    /** Number of precomputed query points, a power of two. */
+    private static final int POINTS = 1024;
+    /** The index over all shapes, as built by the canvas. */
+    private SpatialIndex<Shape> index;
+    /** Query points stored as x,y pairs. */
+    private final double[] points = new double[2*POINTS];
+    /** Position of the next query point. */
+    private int next = 0;
+
+    /**
+     * Recreates a random drawing and indexes it.
+     */
+    @Setup
+    public void setUp() {
+        index = new SpatialIndex<>(128, SpatialIndex.NODES);
+        for (Utils.ShapeRepr repr : Drawings.random(shapes, 42)) {
+            index.insert(repr.recreate());
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < POINTS; i++) {
+            points[2*i] = random.nextDouble() * 1600;
+            points[2*i + 1] = random.nextDouble() * 900;
+        }
+    }
+
+    /**
+     * Picks the topmost shape under the next query point.
+     *
+     * @return the picked shape, or {@code null}
+     */
+    @Benchmark
+    public Shape pick() {
+        int i = next;
+        next = (next + 1) & (POINTS - 1);
+        return index.pick(points[2*i], points[2*i + 1]);
+    }
+}
@@ -0,0 +1,77 @@
+package lab5;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks editing large polygons: previewing the last vertex on every mouse move,
+ * and adding and closing vertices, which recomputes the centroid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonBenchmark {
+    /** Number of polygon vertices. */
+    @Param({"100", "10000", "100000"})
+    int vertices;
+
+    /** The edited polygon, with its origin at (500,500). */
+    private Polygon polygon;
+    /** Alternating preview offset. */
+    private double offset = 0;
+
+    /**
+     * Recreates a polygon with the requested number of vertices.
+     */
+    @Setup
+    public void setUp() {
+        Utils.ShapeRepr repr = new Utils.ShapeRepr();
+        repr.shapeType = Polygon.class;
+        repr.color = 0xFF0000FF;
+        repr.x = 500;
+        repr.y = 500;
+        repr.scale = 1;
+        repr.args = Drawings.polygonArgs(new Random(42), vertices, 300);
+        polygon = (Polygon) repr.recreate();
+    }
+
+    /**
+     * Moves the last vertex, as on every mouse move while drawing.
+     *
+     * @return the polygon
+     */
+    @Benchmark
+    public Polygon preview() {
+        offset = 1 - offset;
+        polygon.preview(700 + offset, 600);
+        return polygon;
+    }
+
+    /**
+     * Adds a vertex and closes the polygon again, which drops the vertex and
+     * recomputes the centroid over all vertices.
+     *
+     * @return the polygon
+     */
+    @Benchmark
+    public Polygon addAndClose() {
+        polygon.nextPoint(700, 600);
+        polygon.nextPoint(500, 500);
+        return polygon;
+    }
+}
@@ -0,0 +1,58 @@
+package lab5;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Shape;
+
+/**
+ * Benchmarks creating shapes through {@link Utils#createShape}, as done for every drawn and loaded shape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeCreationBenchmark {
+    /** Name of the created shape class. */
+    @Param({"Circle", "Rectangle", "Polygon"})
+    String type;
+
+    /** The created shape class. */
+    private Class<?> shapeClass;
+
+    /**
+     * Resolves the created shape class.
+     */
+    @Setup
+    public void setUp() {
+        shapeClass = switch (type) {
+            case "Circle" -> Circle.class;
+            case "Rectangle" -> Rectangle.class;
+            default -> Polygon.class;
+        };
+    }
+
+    /**
+     * Creates a single shape.
+     *
+     * @return the created shape
+     */
+    @Benchmark
+    public Shape createShape() {
+        return Utils.createShape(shapeClass, 100, 200, Color.RED);
+    }
+}
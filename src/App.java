@@ -1,38 +1,87 @@
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyStringProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.Event;
 import javafx.event.EventHandler;
 import javafx.event.EventType;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
+import javafx.scene.CacheHint;
+import javafx.scene.Group;
 import javafx.scene.Node;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.image.PixelWriter;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Shape;
+import javafx.scene.transform.Affine;
+import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Scale;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 /**
  * Javafx application
@@ -56,7 +105,7 @@ public class App extends Application {
     /**
      * The canvas (drawing board) of the application.
      */
-    Canvas canvas;
+    Surface canvas;
     /**
      * Flag containing information about currenty celected button.
      */
@@ -73,6 +122,21 @@ public class App extends Application {
      * Color picker allowing to choose color.
      */
     ColorPicker selectedColor = new ColorPicker(Color.BLACK);
+    /**
+     * Input stage applying pointer motion events to the canvas, coalesced to once per pulse
+     * unless disabled with the {@code lab5.input.coalesce} system property or in the bottom bar.
+     */
+    InputStage input = new InputStage(!"false".equals(System.getProperty("lab5.input.coalesce")));
+    /**
+     * Performance monitor timing pulses and canvas event handlers, shown in an overlay
+     * over the canvas while enabled in the bottom bar.
+     */
+    PerfMonitor perf = new PerfMonitor();
+    /**
+     * Whether shapes are drawn by the immediate-mode renderer instead of as scene graph nodes,
+     * selected with the {@code --renderer=immediate} command-line parameter.
+     */
+    boolean immediate = false;
 
     /**
      * The main entry point for the JavaFX application.
@@ -91,14 +155,28 @@ public class App extends Application {
     @Override
     public void start(Stage _primaryStage) {
         primaryStage = _primaryStage;
+        immediate = "immediate".equals(getParameters().getNamed().get("renderer"));
         Scene scene = new Scene(createContent(), 1920, 1080);
 
         primaryStage.setTitle("lab5");
         primaryStage.setMinWidth(600);
         primaryStage.setMinHeight(400);
         primaryStage.setScene(scene);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN), canvas::undo);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN), canvas::redo);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN), canvas::redo);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.CLOSE_BRACKET, KeyCombination.SHORTCUT_DOWN), canvas::bringToFront);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.OPEN_BRACKET, KeyCombination.SHORTCUT_DOWN), canvas::sendToBack);
         primaryStage.show();
     }
+
+    /**
+     * Stops the JavaFX application, flushing the edit journal.
+     */
+    @Override
+    public void stop() {
+        canvas.closeJournal();
+    }
     
     /**
      * Creates the main layout content of the application.
@@ -110,25 +188,44 @@ public class App extends Application {
         BorderPane root = new BorderPane();
 
         root.setCenter(createCenter());
+        // The drawing is recovered before the bottom bar is created, which shows the recovered layers
+        canvas.openJournal(new File(System.getProperty("user.home"), ".lab5/journal"));
         root.setBottom(createBottom());
         return root;
     }
 
     /**
      * Creates the center section of the UI containing the drawing canvas.
+     * The zoomable canvas fills the center itself, the fixed-size immediate-mode canvas is scrollable.
      *
-     * @return a scrollable pane containing the drawing canvas
+     * @return the drawing canvas, under the performance overlay
      */
     private Region createCenter() {
-        canvas = new Canvas(mouseX, mouseY, selectedButton, selectedColor);
+        canvas = immediate
+            ? new ImmediateCanvas(mouseX, mouseY, selectedButton, selectedColor, input, perf)
+            : new Canvas(mouseX, mouseY, selectedButton, selectedColor, input, perf);
+
+        Region center = canvas.node();
+        if (canvas instanceof ImmediateCanvas) {
+            StackPane wrapper = new StackPane(canvas.node());
+            wrapper.setAlignment(Pos.CENTER);
 
-        StackPane wrapper = new StackPane(canvas);
-        wrapper.setAlignment(Pos.CENTER);
+            ScrollPane scroll = new ScrollPane(wrapper);
+            scroll.setFitToHeight(true);
+            scroll.setFitToWidth(true);
+            center = scroll;
+        }
 
-        ScrollPane center = new ScrollPane(wrapper);
-        center.setFitToHeight(true);
-        center.setFitToWidth(true);
-        return center;
+        // Performance overlay in the top left corner, not intercepting the mouse
+        perf.watch(canvas.node());
+        Label overlay = new Label();
+        overlay.textProperty().bind(perf.reportProperty());
+        overlay.visibleProperty().bind(perf.enabledProperty());
+        overlay.setMouseTransparent(true);
+        overlay.setStyle("-fx-font-family: monospace; -fx-text-fill: white; -fx-background-color: rgba(0, 0, 0, 0.6); -fx-padding: 5");
+        StackPane layers = new StackPane(center, overlay);
+        StackPane.setAlignment(overlay, Pos.TOP_LEFT);
+        return layers;
     }
 
     /**
@@ -138,21 +235,63 @@ public class App extends Application {
      * @return a layout node containing bottom controls
      */
     private Region createBottom() {
-        // Coordinate display
+        // Coordinate display and input statistics
         HBox cords = new Cords(mouseX, mouseY);
+        CheckBox coalesce = new CheckBox("coalesce");
+        coalesce.selectedProperty().bindBidirectional(input.coalescingProperty());
+        Label inputStats = new Label();
+        inputStats.textProperty().bind(Bindings.format("input %d/%d", input.appliedProperty(), input.receivedProperty()));
+        CheckBox perfOverlay = new CheckBox("perf");
+        perfOverlay.selectedProperty().bindBidirectional(perf.enabledProperty());
+        cords.getChildren().addAll(new Label("  "), coalesce, inputStats, perfOverlay);
+        if (canvas instanceof Canvas nodeCanvas) {
+            CheckBox flatten = new CheckBox("flatten");
+            flatten.selectedProperty().addListener((obs, was, is) -> nodeCanvas.setFlattened(is));
+            CheckBox grid = new CheckBox("grid");
+            grid.selectedProperty().addListener((obs, was, is) -> nodeCanvas.setGridSnapping(is));
+            cords.getChildren().addAll(flatten, grid);
+
+            // Layer list, with the visibility and lock of the chosen layer, which is the one drawn into
+            ChoiceBox<String> layerList = new ChoiceBox<>();
+            for (int i = 0; i < nodeCanvas.layerCount(); i++) {
+                layerList.getItems().add(nodeCanvas.layerName(i));
+            }
+            layerList.getSelectionModel().select(0);
+            CheckBox visible = new CheckBox("visible");
+            visible.setSelected(nodeCanvas.isLayerVisible(0));
+            CheckBox locked = new CheckBox("locked");
+            locked.setSelected(nodeCanvas.isLayerLocked(0));
+            layerList.getSelectionModel().selectedIndexProperty().addListener((obs, was, is) -> {
+                if (is.intValue() < 0) { return; }
+                nodeCanvas.setActiveLayer(is.intValue());
+                visible.setSelected(nodeCanvas.isLayerVisible(is.intValue()));
+                locked.setSelected(nodeCanvas.isLayerLocked(is.intValue()));
+            });
+            visible.setOnAction(event -> nodeCanvas.setLayerVisible(layerList.getSelectionModel().getSelectedIndex(), visible.isSelected()));
+            locked.setOnAction(event -> nodeCanvas.setLayerLocked(layerList.getSelectionModel().getSelectedIndex(), locked.isSelected()));
+            Button addLayer = new Button("+");
+            addLayer.setOnAction(event -> {
+                int index = nodeCanvas.addLayer();
+                layerList.getItems().add(nodeCanvas.layerName(index));
+                layerList.getSelectionModel().select(index);
+            });
+            cords.getChildren().addAll(new Label("  "), layerList, addLayer, visible, locked);
+        }
+        cords.setSpacing(5);
 
         // Selection buttons
         HBox menu = new HBox(10);
-        for (Buttons type : Buttons.values()) {
-            menu.getChildren().add(new MenuButton(type.toString(), type, selectedButton));
+        for (ShapeType type : ShapeRegistry.types()) {
+            menu.getChildren().add(new MenuButton(type.label(), () -> selectedButton.set(type)));
         }
+        menu.getChildren().add(new MenuButton(Buttons.EDIT.toString(), () -> selectedButton.set(Buttons.EDIT)));
         FileChooser fileChooser = new FileChooser();
         Button save = new Button("save");
         save.setOnAction(event -> {
             File file = fileChooser.showSaveDialog(primaryStage);
 
             if (file != null) {
-                Event.fireEvent(canvas, new FileEvent(FileEvent.SAVE, file));
+                Event.fireEvent(canvas.node(), new FileEvent(FileEvent.SAVE, file));
             }
         });
         Button load = new Button("load");
@@ -160,10 +299,25 @@ public class App extends Application {
             File file = fileChooser.showOpenDialog(primaryStage);
 
             if (file != null) {
-                Event.fireEvent(canvas, new FileEvent(FileEvent.LOAD, file));
+                Event.fireEvent(canvas.node(), new FileEvent(FileEvent.LOAD, file));
+            }
+        });
+        FileChooser exportChooser = new FileChooser();
+        exportChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("SVG image", "*.svg"));
+        Button export = new Button("export");
+        export.setOnAction(event -> {
+            File file = exportChooser.showSaveDialog(primaryStage);
+
+            if (file != null) {
+                Event.fireEvent(canvas.node(), new FileEvent(FileEvent.EXPORT, file));
             }
         });
-        menu.getChildren().addAll(selectedColor, save, load);
+        menu.getChildren().addAll(selectedColor, save, load, export, new FileProgress(canvas.fileTaskProperty()));
+        if (canvas instanceof ImmediateCanvas immediateCanvas) {
+            Label tiles = new Label();
+            tiles.textProperty().bind(immediateCanvas.tilesRedrawnProperty().asString("tiles/frame: %d"));
+            menu.getChildren().add(tiles);
+        }
         menu.setAlignment(Pos.CENTER);
 
         // Info and Help buttons
@@ -185,13 +339,148 @@ public class App extends Application {
         return bottom;
     }
 
+    /**
+     * A drawing surface hosted in the center of the application.
+     */
+    public interface Surface {
+
+        /**
+         * Returns the node displaying the surface and receiving file events.
+         *
+         * @return the surface node
+         */
+        Region node();
+
+        /**
+         * Returns the property holding the most recently started save or load task.
+         *
+         * @return the file task property
+         */
+        ReadOnlyObjectProperty<Task<Void>> fileTaskProperty();
+
+        /**
+         * Reverts the most recent edit. Surfaces without an edit history ignore the call.
+         */
+        default void undo() {}
+
+        /**
+         * Applies the most recently undone edit again. Surfaces without an edit history ignore the call.
+         */
+        default void redo() {}
+
+        /**
+         * Recovers the drawing from the edit journal stored in given directory and starts
+         * journaling further edits into it. Surfaces without journaling ignore the call.
+         *
+         * @param dir directory holding the journal files
+         */
+        default void openJournal(File dir) {}
+
+        /**
+         * Flushes and stops the edit journal. Surfaces without journaling ignore the call.
+         */
+        default void closeJournal() {}
+
+        /**
+         * Moves the selected shapes above all other shapes of their layer. Surfaces without layers ignore the call.
+         */
+        default void bringToFront() {}
+
+        /**
+         * Moves the selected shapes below all other shapes of their layer. Surfaces without layers ignore the call.
+         */
+        default void sendToBack() {}
+    }
+
     /**
      * A custom canvas pane for drawing and previewing Buttons (circle, rectangle, polygon).
      */
-    public static class Canvas extends AnchorPane {
+    public static class Canvas extends AnchorPane implements Surface {
         private Shape shapePreview = null;
         private final Utils.Pointer<Shape> selectedShape = new Utils.Pointer<Shape>(null);
         private final RotationCircle rotationCircle = new RotationCircle(selectedShape);
+        /** Layers of the drawing, bottom to top. */
+        private final List<Layer> layers = new ArrayList<>();
+        /** The layer new shapes are drawn into. */
+        private Layer active;
+        /** Number of shapes examined by the most recent {@link #pick(double, double)}. */
+        private int examined = 0;
+        /** Executor running save and load tasks off the JavaFX application thread. */
+        private static final ExecutorService fileExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        /** The most recently started save or load task. */
+        private final ObjectProperty<Task<Void>> fileTask = new SimpleObjectProperty<>();
+        /** Loader stage attaching shapes decoded by load tasks in batches. */
+        private final ShapeLoader shapeLoader = new ShapeLoader(this);
+        /** Journal of edit operations, or {@code null} if journaling is not running. */
+        private Journal journal = null;
+        /** Undo/redo history, bounded by the {@code lab5.undo.limit} system property in bytes. */
+        private final UndoHistory history = new UndoHistory(Long.getLong("lab5.undo.limit", 16L << 20));
+        /** Smallest and largest zoom factor of the view. */
+        private static final double MIN_ZOOM = 1e-6, MAX_ZOOM = 1e6;
+        /** Zoom factor applied by a single step of the mouse wheel. */
+        private static final double ZOOM_STEP = 1.1;
+        /** Group holding the handles above all layers in world coordinates, which mouse events are converted into. */
+        private final Group world = new Group();
+        /** The view transform mapping world coordinates to the canvas: a uniform scale followed by a translation. */
+        private final Affine view = new Affine();
+        /** Distance in pixels within which drawing tools snap to vertices, edge midpoints and centers. */
+        private static final double SNAP_RADIUS = 8;
+        /** Spacing of the snapping grid in world coordinates. */
+        private static final double GRID_SIZE = 20;
+        /** Reusable buffer receiving the snap point found by a query. */
+        private final double[] snapped = new double[2];
+        /** Marker showing the point a drawing tool snapped to. */
+        private final javafx.scene.shape.Circle snapMarker = new javafx.scene.shape.Circle();
+        /** Whether drawing tools snap to the grid when no snap point is near. */
+        private boolean gridSnapping = false;
+        /** Pointer position on the canvas the view is being panned from, or NaN if the view is not being panned. */
+        private double panX = Double.NaN, panY = Double.NaN;
+        /** The visible area of the canvas in world coordinates, or {@code null} if the canvas has not been laid out yet. */
+        private Bounds viewport = null;
+        /** Shapes intersecting the visible area, which are the only shapes shown. */
+        private HashSet<Shape> inView = new HashSet<>();
+        /** Reusable buffer receiving the shapes found in the visible area. */
+        private final List<Shape> found = new ArrayList<>();
+        /** Shapes selected together with a rubber band; empty unless at least two shapes are selected. */
+        private final LinkedHashSet<Shape> selection = new LinkedHashSet<>();
+        /** Rubber band outlining the area being selected. */
+        private final javafx.scene.shape.Rectangle band = new javafx.scene.shape.Rectangle();
+        /** Corner the rubber band was started at, or NaN if no rubber band is being dragged. */
+        private double bandX = Double.NaN, bandY = Double.NaN;
+        /** Image of the selection, transformed as a whole in place of the shapes while the selection is dragged. */
+        private final javafx.scene.canvas.Canvas groupImage = new javafx.scene.canvas.Canvas();
+        /** Rotation of the selection image around the center of the selection. */
+        private final Rotate groupRotation = new Rotate();
+        /** Scaling of the selection image around the center of the selection. */
+        private final Scale groupScale = new Scale();
+        /** Center of the selection's bounds, around which the selection is rotated and scaled. */
+        private double groupX, groupY;
+        /** Pointer position and its angle around the selection center when the selection drag started. */
+        private double dragX, dragY, dragAngle;
+        /** Whether the selection is being dragged as a whole. */
+        private boolean groupDragging = false;
+        /** Whether the selection is being scaled as a whole by the mouse wheel. */
+        private boolean groupScaling = false;
+        /** Delay after the last wheel tick after which the scaling of the selection is finished. */
+        private final PauseTransition groupScaleEnd = new PauseTransition(Duration.millis(300));
+        /** Whether shapes that are not being edited are flattened into the background image. */
+        private boolean flattened = false;
+        /** Reusable buffer receiving the shapes found for a rendered background tile. */
+        private final List<Shape> visibleFlat = new ArrayList<>();
+        /** Timer re-rendering the dirty background tiles of the visible layers once on the next pulse after a change. */
+        private final AnimationTimer redraw = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                for (Layer layer : layers) {
+                    if (layer.isVisible()) { layer.background.redraw(); }
+                }
+            }
+        };
 
         /**
          * Constructs a new Canvas that tracks mouse events and allows shape drawing.
@@ -199,25 +488,83 @@ public class App extends Application {
          * @param mouseX         a property holding the current mouse X coordinate
          * @param mouseY         a property holding the current mouse Y coordinate
          * @param selectedButton an IntegerProperty representing the selected shape tool
+         * @param selectedColor  color picker holding the fill color of new shapes
+         * @param input          input stage applying pointer motion events
+         * @param perf           monitor timing the event handlers
          */
-        Canvas(DoubleProperty mouseX, DoubleProperty mouseY, Buttons.ButtonSelector selectedButton, ColorPicker selectedColor) {
+        Canvas(DoubleProperty mouseX, DoubleProperty mouseY, Buttons.ButtonSelector selectedButton, ColorPicker selectedColor, InputStage input, PerfMonitor perf) {
             super();
-            setMaxSize(1600, 900);
-            setMinSize(1600, 900);
+            setMinSize(0, 0);
             setPrefSize(1600, 900);
             setStyle("-fx-background-color: white");
+            javafx.scene.shape.Rectangle clip = new javafx.scene.shape.Rectangle();
+            clip.widthProperty().bind(widthProperty());
+            clip.heightProperty().bind(heightProperty());
+            setClip(clip);
 
-            getChildren().add(rotationCircle);
+            // The world is unbounded: shapes keep their world coordinates and only the view transform
+            // changes when zooming or panning, while the background tiles and the selection image cover
+            // the canvas itself. Layers are inserted below the handles.
+            world.getTransforms().add(view);
+            world.setManaged(false);
+            getChildren().addAll(world, groupImage);
+            setActiveLayer(addLayer());
+            widthProperty().addListener(obs -> resizeBackground());
+            heightProperty().addListener(obs -> resizeBackground());
 
-            this.setOnMouseMoved(event -> {
-                mouseX.set(event.getX());
-                mouseY.set(event.getY());
+            band.setManaged(false);
+            band.setMouseTransparent(true);
+            band.setFill(Color.rgb(0, 0, 255, 0.1));
+            band.setStroke(Color.BLUE);
+            band.getStrokeDashArray().addAll(6.0, 4.0);
+            band.setVisible(false);
+            groupImage.setManaged(false);
+            groupImage.setMouseTransparent(true);
+            groupImage.getTransforms().addAll(groupRotation, groupScale);
+            groupImage.setVisible(false);
+            groupScaleEnd.setOnFinished(event -> endGroupScale());
+            snapMarker.setManaged(false);
+            snapMarker.setMouseTransparent(true);
+            snapMarker.setFill(null);
+            snapMarker.setStroke(Color.BLUE);
+            snapMarker.setVisible(false);
+            world.getChildren().addAll(rotationCircle, band, snapMarker);
+
+            // The middle button pans the view and the mouse wheel zooms it while the shortcut key is held;
+            // neither reaches the tools
+            addEventFilter(MouseEvent.ANY, event -> {
+                if (event.getEventType() == MouseEvent.MOUSE_PRESSED && event.getButton() == MouseButton.MIDDLE) {
+                    panX = event.getX();
+                    panY = event.getY();
+                    event.consume();
+                } else if (!Double.isNaN(panX) && event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+                    pan(event.getX() - panX, event.getY() - panY);
+                    panX = event.getX();
+                    panY = event.getY();
+                    event.consume();
+                } else if (!Double.isNaN(panX) && event.getEventType() == MouseEvent.MOUSE_RELEASED && event.getButton() == MouseButton.MIDDLE) {
+                    panX = Double.NaN;
+                    endPan();
+                    event.consume();
+                }
+            });
+            addEventFilter(ScrollEvent.SCROLL, event -> {
+                if (!event.isShortcutDown() || event.getDeltaY() == 0) { return; }
+                zoom(event.getX(), event.getY(), event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP);
+                event.consume();
+            });
+
+            EventHandler<MouseEvent> moved = perf.timed("move", event -> {
+                Point2D at = snap(selectedButton, event);
+                mouseX.set(at.getX());
+                mouseY.set(at.getY());
                     
                 if (shapePreview != null) {
-                    if (selectedButton.get().shape().isInstance(shapePreview)) {
+                    if (selectedButton.draws(shapePreview.getClass())) {
                         ((Previewable) shapePreview).preview(mouseX.get(), mouseY.get());
+                        updateShape(shapePreview);
                     } else {
-                        this.getChildren().remove(this.getChildren().size()-2);
+                        removeShape(shapePreview);
                         shapePreview = null;
                     }
                 }
@@ -226,54 +573,79 @@ public class App extends Application {
                     selectedShape.value().setStroke(null);
                     selectedShape.set(null);
                 }
+                if (!selection.isEmpty() && selectedButton.get() != Buttons.EDIT) { clearSelection(); }
+                flattenIdle();
             });
+            this.setOnMouseMoved(event -> input.submit(toWorld(event), moved));
 
-            addEventHandler(FileEvent.LOAD, event -> {
-                try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(event.getFile()))) {
-                    Utils.ShapeRepr[] arr = (Utils.ShapeRepr[]) in.readObject();
-                    getChildren().clear();
-                    getChildren().add(rotationCircle);
-                    for (Utils.ShapeRepr shapeRepr : arr) {
-                        getChildren().add(getChildren().size()-1, shapeRepr.recreate());
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
+            addEventHandler(FileEvent.LOAD, perf.timed("load", event -> {
+                shapeLoader.begin();
+                startFileTask(new LoadTask(event.getFile(), shapeLoader));
+            }));
 
-            addEventHandler(FileEvent.SAVE, event -> {
-                try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(event.getFile()))) {
-                    Utils.ShapeRepr[] arr = new Utils.ShapeRepr[getChildren().size()-1];
-                    for (int i=0; i<arr.length; i++) {
-                        arr[i] = ((Repr) getChildren().get(i)).createRepr();
-                    }
-                    out.writeObject(arr);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            addEventHandler(FileEvent.SAVE, perf.timed("save", event -> {
+                startFileTask(new SaveTask(event.getFile(), snapshot()));
+            }));
+
+            addEventHandler(FileEvent.EXPORT, event -> {
+                startFileTask(new ExportTask(event.getFile(), snapshot()));
             });
 
-            this.setOnMouseDragged(event -> {
-                mouseX.set(event.getX());
-                mouseY.set(event.getY());
+            EventHandler<MouseEvent> dragged = perf.timed("drag", event -> {
+                Point2D at = snap(selectedButton, event);
+                mouseX.set(at.getX());
+                mouseY.set(at.getY());
                 
                 switch (selectedButton.get()) {
                     case null -> {}
                     
                     case Buttons.EDIT -> {
-                        if (rotationCircle.getIsRotating()) { return; }
+                        if (!Double.isNaN(bandX)) {
+                            updateBand(event.getX(), event.getY());
+                            return;
+                        }
+                        if (groupDragging) {
+                            dragGroup(event.getX(), event.getY());
+                            return;
+                        }
+                        if (!selection.isEmpty()) { return; }
+
+                        // Drags of the rotation circle bubble up here, where the shape is rotated
+                        if (rotationCircle.getIsRotating()) {
+                            if (selectedShape.value() instanceof Rotatable rotatable) {
+                                Point2D local = rotationCircle.parentToLocal(event.getX(), event.getY());
+                                EditorEvents.Transform transform = new EditorEvents.Transform();
+                                transform.begin();
+                                rotatable.rotate(local.getX(), local.getY());
+                                transform.finish("rotate", rotatable.getClass());
+                                updateShape(selectedShape.value());
+                                if (journal != null) { journal.rotated(selectedShape.value(), local.getX(), local.getY()); }
+                                history.record(new RotateCommand(selectedShape.value(), rotationCircle.getStartAngle(), rotatable.getAngle()));
+                            }
+                            return;
+                        }
 
-                        if (!selectedShape.isNull() && selectedShape.value() instanceof Movable) {
-                            ((Movable) selectedShape.value()).move(event.getX(), event.getY());
+                        if (!selectedShape.isNull() && selectedShape.value() instanceof Movable movable) {
+                            Shape shape = selectedShape.value();
+                            double x0 = movable.getPositionX();
+                            double y0 = movable.getPositionY();
+                            EditorEvents.Transform transform = new EditorEvents.Transform();
+                            transform.begin();
+                            movable.move(event.getX(), event.getY());
+                            transform.finish("move", shape.getClass());
+                            updateShape(shape);
+                            if (journal != null) { journal.moved(shape, event.getX(), event.getY()); }
+                            history.record(new TranslateCommand(shape, movable.getPositionX() - x0, movable.getPositionY() - y0));
                         }
                     }
 
                     default -> {
                         if (shapePreview != null) {
-                            if (selectedButton.get().shape().isInstance(shapePreview)) {
+                            if (selectedButton.draws(shapePreview.getClass())) {
                                 ((Previewable) shapePreview).preview(mouseX.get(), mouseY.get());
+                                updateShape(shapePreview);
                             } else {
-                                this.getChildren().remove(this.getChildren().size()-2);
+                                removeShape(shapePreview);
                                 shapePreview = null;
                             }
                         }
@@ -281,258 +653,3131 @@ public class App extends Application {
                             rotationCircle.setVisible(false);
                             selectedShape.value().setStroke(null);
                             selectedShape.set(null);;
+                            flattenIdle();
                         }
                     }
                 }       
             });
+            this.setOnMouseDragged(event -> input.submit(toWorld(event), dragged));
+            // Pending pointer input is applied before buttons change the gesture,
+            // including before the rotation circle's own handlers run
+            this.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> {
+                input.flush();
+                endGroupScale();
+            });
+            this.addEventFilter(MouseEvent.MOUSE_RELEASED, event -> input.flush());
+
+            this.setOnMouseReleased(event -> {
+                if (!Double.isNaN(bandX)) { endBand(); }
+                if (groupDragging) { endGroupDrag(); }
+                history.seal();
+                flattenIdle();
+            });
 
             this.setOnMouseExited(event -> {
+                input.flush();
                 mouseX.set(-1);
                 mouseY.set(-1);
+                snapMarker.setVisible(false);
             });
 
-            this.setOnMousePressed(event -> {
+            EventHandler<MouseEvent> pressed = perf.timed("press", event -> {
+                history.seal();
                 switch (selectedButton.get()) {
                     case null -> {}
 
                     case Buttons.EDIT -> {
                         // Select a shape
-                        for (int i=getChildren().size()-2; i>=0; i--) {
-                            Node node = getChildren().get(i);
-                            if (node instanceof Shape shape && shape.getBoundsInParent().contains(event.getX(), event.getY())) {
-                                if (!selectedShape.isNull()) { selectedShape.value().setStroke(null); }
-                                selectedShape.set(shape);
-                                if (selectedShape.value() instanceof Rotatable rotatable) {
-                                    rotationCircle.translateXProperty().bind(rotatable.rotationPivotXProperty());
-                                    rotationCircle.translateYProperty().bind(rotatable.rotationPivotYProperty());
-                                    rotationCircle.setVisible(true);
-                                } else {
-                                    rotationCircle.setVisible(false);
-                                }
-                                selectedShape.value().setStroke(Color.RED);
-                                break;
+                        EditorEvents.SelectionScan scan = new EditorEvents.SelectionScan();
+                        scan.begin();
+                        Shape shape = pick(event.getX(), event.getY());
+                        scan.finish(examined, shape != null);
+
+                        // A multiple selection is recolored, or dragged from any of its shapes or the rotation circle
+                        if (!selection.isEmpty()) {
+                            if (event.getButton() == MouseButton.SECONDARY) {
+                                recolorSelection(selectedColor.getValue());
+                                return;
+                            }
+                            if (event.getTarget() == rotationCircle || selection.contains(shape)) {
+                                startGroupDrag(event.getX(), event.getY());
+                                return;
                             }
+                            clearSelection();
                         }
 
-                        if (event.getButton() == MouseButton.SECONDARY) {
-                            selectedShape.value().setFill(selectedColor.getValue());
+                        if (shape != null) {
+                            selectShape(shape);
+                        } else if (event.getButton() == MouseButton.PRIMARY && (event.isShiftDown() || selectedShape.isNull())) {
+                            startBand(event.getX(), event.getY());
+                        }
+
+                        if (event.getButton() == MouseButton.SECONDARY && !selectedShape.isNull()) {
+                            int from = Utils.toRgba((Color) selectedShape.value().getFill());
+                            int to = Utils.toRgba(selectedColor.getValue());
+                            selectedShape.value().setFill(Utils.fromRgba(to));
+                            if (journal != null) { journal.recolored(selectedShape.value(), to); }
+                            history.record(new RecolorCommand(selectedShape.value(), from, to));
                         }
                     }
                 
                     default -> {
                         if (event.getButton() == MouseButton.SECONDARY) {
                             if (shapePreview != null) {
-                                this.getChildren().remove(this.getChildren().size()-2);
+                                removeShape(shapePreview);
                                 shapePreview = null;
                             }
                             return;
                         }
 
+                        // Hidden and locked layers cannot be drawn into
+                        if (shapePreview == null && !active.isEditable()) { return; }
+
+                        Point2D at = snap(selectedButton, event);
                         if (shapePreview == null) {
-                            shapePreview = Utils.createShape(selectedButton.getShape(), event.getX(), event.getY(), selectedColor.getValue());
-                            getChildren().add(getChildren().size()-1, shapePreview);
+                            shapePreview = ShapeRegistry.create(selectedButton.getShape(), at.getX(), at.getY(), selectedColor.getValue());
+                            addShape(shapePreview, active);
+                            // Polygons are journaled point by point, other shapes once they are finished
+                            if (journal != null && shapePreview instanceof Polygon) { journal.created(shapePreview, layers.indexOf(active)); }
                         } else {
                             if (shapePreview instanceof Polygon polygon) {
-                                shapePreview = polygon.nextPoint(event.getX(), event.getY());
+                                shapePreview = polygon.nextPoint(at.getX(), at.getY());
+                                updateShape(polygon);
+                                if (journal != null) { journal.pointAdded(polygon, at.getX(), at.getY()); }
+                                if (shapePreview == null) { history.record(new CreateCommand(polygon, layerOf(polygon))); }
                             } else {
+                                Shape finished = shapePreview;
+                                Layer layer = layerOf(finished);
+                                if (journal != null) { journal.created(finished, layers.indexOf(layer)); }
+                                history.record(new CreateCommand(finished, layer));
                                 shapePreview = null;
+                                indexSnapPoints(finished, layer);
                             }
                         }
                     }
                 }
+                flattenIdle();
             });
+            this.setOnMousePressed(event -> pressed.handle(toWorld(event)));
 
-            this.setOnScroll(event -> {
+            this.setOnScroll(perf.timed("scroll", event -> {
                 if (selectedButton.get() == Buttons.EDIT) {
+                    if (!selection.isEmpty() && !groupDragging) {
+                        scaleGroup(event.getDeltaY() > 0 ? 1.05 : 0.95);
+                        return;
+                    }
                     if (!selectedShape.isNull() && selectedShape.value() instanceof Resizable resizable) {
+                        double from = resizable.getSize();
+                        EditorEvents.Transform transform = new EditorEvents.Transform();
+                        transform.begin();
                         resizable.resize(event.getDeltaY());
+                        transform.finish("resize", resizable.getClass());
+                        updateShape(selectedShape.value());
+                        if (journal != null) { journal.resized(selectedShape.value(), event.getDeltaY()); }
+                        history.record(new ResizeCommand(selectedShape.value(), from, resizable.getSize()));
                     }
                 }
-            });
+            }));
+            // Touch gestures report their end, plain wheels only stop ticking
+            this.setOnScrollFinished(event -> endGroupScale());
         }
 
-    }
-
-    /**
-     * A custom menu button that updates a ButtonSelector when clicked.
-     */
-    public static class MenuButton extends Button {
         /**
-         * Constructs a new MenuButton.
+         * Places a shape on top of all other shapes of a layer and registers it in the layer's spatial index.
          *
-         * @param text            the text displayed on the button
-         * @param id              the ID associated with this button
-         * @param buttonSelector  a ButtonSelector to be bound to the button instance
+         * @param shape the shape to add
+         * @param layer the layer to add the shape to
          */
-        MenuButton(String text, Buttons id, Buttons.ButtonSelector buttonSelector) {
-            super(text);
+        private void addShape(Shape shape, Layer layer) {
+            layer.index.insert(shape);
+            indexSnapPoints(shape, layer);
+            cull(shape);
+            invalidateDot(shape.getBoundsInParent(), layer);
+            layer.content.getChildren().add(shape);
+        }
 
-            this.setOnAction(event -> {
-                buttonSelector.set(id);
-            });
+        /**
+         * Refreshes a shape in its layer's spatial index and shows or hides it depending on
+         * whether it still intersects the visible area. Shapes in no layer are ignored.
+         *
+         * @param shape the shape whose bounds have changed
+         */
+        private void updateShape(Shape shape) {
+            Layer layer = layerOf(shape);
+            if (layer == null) { return; }
+            Bounds before = layer.index.bounds(shape);
+            layer.index.update(shape);
+            layer.staleSnaps.add(shape);
+            cull(shape);
+            if (layer.flat.containsKey(shape)) {
+                repaintFlat(shape, layer);
+            } else {
+                invalidateDot(before, layer);
+                invalidateDot(shape.getBoundsInParent(), layer);
+            }
+            if (shape == selectedShape.value()) { placeHandle(shape); }
         }
-    }
 
-    /**
-     * A button that opens a child stage displaying information loaded from a file.
-     */
-    public static class InfoButton extends Button {
-        private final VBox content = new VBox();
+        /**
+         * Returns the layer holding a shape. Layers are few, so they are simply searched in turn.
+         *
+         * @param shape the shape
+         * @return the layer holding the shape, or {@code null} if it is in no layer
+         */
+        private Layer layerOf(Shape shape) {
+            for (Layer layer : layers) {
+                if (layer.index.contains(shape)) { return layer; }
+            }
+            return null;
+        }
 
         /**
-         * Constructs an InfoButton that opens a window with content from a text file.
+         * Finds the topmost shape under point (x,y), searching the layers from the top. Hidden and
+         * locked layers are skipped without examining any of their shapes.
          *
-         * @param text         the name of the file (without extension) to load and also button's label
-         * @param primaryStage the parent stage for modal positioning
-         * @param isOpen       property indicating whether the info window is already open
+         * @param x the X coordinate of the point
+         * @param y the Y coordinate of the point
+         * @return the topmost shape under the point, or {@code null} if there is none
          */
-        InfoButton(String text, Stage primaryStage, BooleanProperty isOpen) {
-            super(text);
-            
-            try {
-                File file = new File("./resources/" + text + ".txt");
-                Scanner stream = new Scanner(file);
-                while (stream.hasNextLine()) {
-                    content.getChildren().add(new Label(stream.nextLine()));
-                }
-                
-                stream.close();
-            } catch (FileNotFoundException e) {
-                System.out.println("An error occurred.");
-                e.printStackTrace();
+        private Shape pick(double x, double y) {
+            examined = 0;
+            for (int i = layers.size()-1; i >= 0; i--) {
+                Layer layer = layers.get(i);
+                if (!layer.isEditable()) { continue; }
+                Shape shape = layer.index.pick(x, y);
+                examined += layer.index.examined();
+                if (shape != null) { return shape; }
             }
-            content.setAlignment(Pos.CENTER);
-            
-            this.setOnAction(new EventHandler<ActionEvent>() {
-                @Override
-                public void handle(ActionEvent event) {
-                    if (!isOpen.get()) {
-                        Stage infoStage = new ChildStage(content, primaryStage, isOpen);
-                        infoStage.show();
-                        isOpen.set(true);
-                    }
-                }
-            });
+            return null;
         }
-    }
 
-    /**
-     * A secondary window (child stage) for displaying informational content.
-     */
-    public static class ChildStage extends Stage {
         /**
-         * Constructs a non-resizable child stage with given content.
+         * Moves the rotation circle to the rotation pivot of the selected shape. The pivot is
+         * queried on every change of that shape only, instead of every shape keeping it bound.
          *
-         * @param content  the VBox containing the content to display
-         * @param owner    the parent stage
-         * @param isOpen   property to reset when the window is closed
+         * @param shape the selected shape
          */
-        ChildStage(VBox content, Stage owner, BooleanProperty isOpen) {
-            super();
-            StackPane wrapper = new StackPane(content);
-            wrapper.setAlignment(Pos.CENTER);
-            this.setScene(new Scene(wrapper, 400, 400));
-            this.setResizable(false);
-            this.initOwner(owner);
-            this.setOnCloseRequest(event -> {
-                isOpen.set(false);
-            });
+        private void placeHandle(Shape shape) {
+            if (!(shape instanceof Rotatable rotatable)) { return; }
+            rotationCircle.setTranslateX(rotatable.getRotationPivotX());
+            rotationCircle.setTranslateY(rotatable.getRotationPivotY());
         }
-    }
 
-    /**
-     * A status bar showing the current mouse coordinates in the format "X : Y".
-     */
-    public static class Cords extends HBox {
         /**
-         * Constructs a Cords display element bound to mouse coordinates.
+         * Shows a shape if it intersects the visible area and spans at least a pixel, otherwise hides it.
          *
-         * @param mouseX the mouse's X coordinate property
-         * @param mouseY the mouse's Y coordinate property
+         * @param shape the shape to show or hide
          */
-        Cords(DoubleProperty mouseX, DoubleProperty mouseY) {
-            super();
+        private void cull(Shape shape) {
+            Bounds bounds = shape.getBoundsInParent();
+            boolean visible = viewport == null || (viewport.intersects(bounds) && spansPixel(bounds));
+            if (visible) {
+                inView.add(shape);
+            } else {
+                inView.remove(shape);
+            }
+            setShown(shape, visible);
+        }
 
-            Label mX = new Label();
-            Label mY = new Label();
-            mX.textProperty().bind(mouseX.asString("%.0f"));
-            mY.textProperty().bind(mouseY.asString("%.0f"));
-            
-            this.getChildren().addAll(mX, new Label(" : "), mY);
-            this.setAlignment(Pos.CENTER);
-            this.setMinWidth(80);
+        /**
+         * Shows or hides a shape. Hidden shapes are also unmanaged, so that they are
+         * skipped by rendering, picking and layout.
+         *
+         * @param shape the shape to show or hide
+         * @param shown whether the shape is shown
+         */
+        private static void setShown(Shape shape, boolean shown) {
+            shape.setVisible(shown);
+            shape.setManaged(shown);
         }
-    }
 
-    /**
-     * A circle used as the input method for shape rotation.
-     */
-    private static class RotationCircle extends javafx.scene.shape.Circle {
         /**
-         * Flag indicating whether the shape is being rotated.
+         * Checks whether bounds span at least a pixel on the canvas at the current zoom.
+         *
+         * @param bounds bounds in world coordinates
+         * @return {@code true} if the larger side of the bounds is at least a pixel long, otherwise {@code false}
          */
-        private boolean isRotating = false;
+        private boolean spansPixel(Bounds bounds) {
+            return Math.max(bounds.getWidth(), bounds.getHeight()) * view.getMxx() >= 1;
+        }
 
         /**
-         * Constructs a RotationCircle binding it to a shape selector.
-         * 
-         * @param selectedShape shape selector pointer
+         * Recomputes the visible area of the canvas from its size and the view transform, hiding shapes
+         * entirely outside of it or smaller than a pixel and showing shapes that came into view. Only the
+         * shapes in the old and new visible area of the visible layers are examined, so panning and zooming
+         * cost proportionally to what is visible.
          */
-        public RotationCircle(Utils.Pointer<Shape> selectedShape) {
-            super();
-            setRadius(20);
-            setFill(null);
-            setStroke(Color.BLUE);
-            setStrokeWidth(10);
-            setOnMouseDragged(event -> {
-                isRotating = true;
-                if (selectedShape.value() instanceof Rotatable) { ((Rotatable) selectedShape.value()).rotate(event.getX(), event.getY()); }
-            });
-            setOnMouseReleased(event -> {
-                if (isRotating) { isRotating = false; }
-            });
-            setVisible(false);
+        private void updateViewport() {
+            viewport = world.parentToLocal(new BoundingBox(0, 0, getWidth(), getHeight()));
+            for (Layer layer : layers) {
+                if (layer.isVisible()) { layer.index.query(viewport.getMinX(), viewport.getMinY(), viewport.getMaxX(), viewport.getMaxY(), found); }
+            }
+            HashSet<Shape> next = new HashSet<>();
+            for (Shape shape : found) {
+                if (spansPixel(shape.getBoundsInParent())) { next.add(shape); }
+            }
+            found.clear();
+            for (Shape shape : inView) {
+                if (!next.contains(shape)) { setShown(shape, false); }
+            }
+            for (Shape shape : next) {
+                if (!inView.contains(shape)) { setShown(shape, true); }
+            }
+            inView = next;
         }
 
         /**
-         * Returns whether the shape is being rotated.
-         * 
-         * @return {@code true} if shape is being rotated, otherwise {@code false}
+         * Converts a mouse event received by the canvas to world coordinates. Every event is converted
+         * once here, so the tools and shapes only ever see world coordinates.
+         *
+         * @param event the event in canvas coordinates
+         * @return a copy of the event in world coordinates
          */
-        public boolean getIsRotating() {
-            return isRotating;
+        private MouseEvent toWorld(MouseEvent event) {
+            return event.copyFor(world, event.getTarget());
         }
-    }
-    
-    /**
-     * A custom used for save/load functionality. 
-     */
-    public static class FileEvent extends Event {
-        /** FileEvent variant representing save operation */
-        public static final EventType<FileEvent> SAVE = new EventType<>(Event.ANY, "SAVE");
-        /** FileEvent variant representing save operation */
-        public static final EventType<FileEvent> LOAD = new EventType<>(Event.ANY, "LOAD");
-        /** Selected file to save into/load from */
-        private final File file;
 
         /**
-         * Constructs a FileEvent of specified type
-         * 
-         * @param eventType type of the event
-         * @param file      selected file
+         * Refreshes the snap points of the shapes of a layer changed since its last snap query. Changes only
+         * mark shapes as stale, so moving or resizing shapes does not recompute their points on every event.
+         *
+         * @param layer the layer whose snap points are refreshed
          */
-        public FileEvent(EventType<? extends FileEvent> eventType, File file) {
-            super(eventType);
-            this.file = file;
+        private void refreshSnapPoints(Layer layer) {
+            if (layer.staleSnaps.isEmpty()) { return; }
+            for (Shape shape : layer.staleSnaps) {
+                indexSnapPoints(shape, layer);
+            }
+            layer.staleSnaps.clear();
         }
 
         /**
-         * Returns the file to save into/load from
-         * 
-         * @return the file object
+         * Refreshes the snap points of a shape in its layer. The shape being drawn offers none, so that it does
+         * not snap to itself, and neither do shape types without a plain data implementation in {@link ShapeOps}.
+         *
+         * @param shape the added or changed shape
+         * @param layer the layer holding the shape
          */
-        public File getFile() {
-            return file;
+        private void indexSnapPoints(Shape shape, Layer layer) {
+            if (shape == shapePreview || !ShapeOps.supports(shape.getClass())) { return; }
+            layer.snaps.put(shape, ShapeOps.snapPoints(((Repr) shape).createRepr()));
+        }
+
+        /**
+         * Snaps the pointer of a drawing tool to the nearest vertex, edge midpoint or center of a shape
+         * in a visible layer within {@link #SNAP_RADIUS} pixels, or else to the grid if grid snapping is on,
+         * and shows the snap marker on the result. Other tools, and drawing with the Alt key held, do not snap.
+         *
+         * @param selectedButton the selected tool
+         * @param event          the pointer event in world coordinates
+         * @return the snapped point in world coordinates
+         */
+        private Point2D snap(Buttons.ButtonSelector selectedButton, MouseEvent event) {
+            double x = event.getX();
+            double y = event.getY();
+            double zoom = view.getMxx();
+            boolean drawing = selectedButton.get() != null && selectedButton.get() != Buttons.EDIT;
+            boolean found = false;
+            if (drawing && !event.isAltDown()) {
+                // Every further layer only needs to be searched for points closer than the nearest found so far
+                double radius = SNAP_RADIUS / zoom;
+                for (Layer layer : layers) {
+                    if (!layer.isVisible()) { continue; }
+                    refreshSnapPoints(layer);
+                    if (layer.snaps.nearest(x, y, radius, snapped)) {
+                        radius = Utils.distance(x, y, snapped[0], snapped[1]);
+                        found = true;
+                    }
+                }
+            }
+            if (found) {
+                x = snapped[0];
+                y = snapped[1];
+            } else if (drawing && !event.isAltDown() && gridSnapping) {
+                x = Math.round(x / GRID_SIZE) * GRID_SIZE;
+                y = Math.round(y / GRID_SIZE) * GRID_SIZE;
+            } else {
+                snapMarker.setVisible(false);
+                return new Point2D(x, y);
+            }
+            // The marker keeps the same size on screen at any zoom
+            snapMarker.setCenterX(x);
+            snapMarker.setCenterY(y);
+            snapMarker.setRadius(4 / zoom);
+            snapMarker.setStrokeWidth(1.5 / zoom);
+            snapMarker.setVisible(true);
+            return new Point2D(x, y);
+        }
+
+        /**
+         * Turns snapping of drawing tools to the grid on or off.
+         *
+         * @param _gridSnapping whether drawing tools snap to the grid
+         */
+        void setGridSnapping(boolean _gridSnapping) {
+            gridSnapping = _gridSnapping;
+        }
+
+        /**
+         * Shifts the view. The background tiles are shifted along with it instead of being re-rendered,
+         * until the pan ends.
+         *
+         * @param dx the shift along the X axis in pixels
+         * @param dy the shift along the Y axis in pixels
+         */
+        private void pan(double dx, double dy) {
+            endGroupScale();
+            view.setTx(view.getTx() + dx);
+            view.setTy(view.getTy() + dy);
+            for (Layer layer : layers) {
+                layer.tiles.setTranslateX(layer.tiles.getTranslateX() + dx);
+                layer.tiles.setTranslateY(layer.tiles.getTranslateY() + dy);
+            }
+            updateViewport();
+        }
+
+        /**
+         * Finishes panning the view, re-rendering the background at its new position.
+         */
+        private void endPan() {
+            for (Layer layer : layers) {
+                layer.tiles.setTranslateX(0);
+                layer.tiles.setTranslateY(0);
+                layer.background.invalidateAll();
+            }
+            redraw.start();
+        }
+
+        /**
+         * Scales the view around a point on the canvas, which stays in place.
+         *
+         * @param x      the X coordinate of the fixed point in pixels
+         * @param y      the Y coordinate of the fixed point in pixels
+         * @param factor the zoom factor
+         */
+        private void zoom(double x, double y, double factor) {
+            endGroupScale();
+            double zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, view.getMxx() * factor));
+            factor = zoom / view.getMxx();
+            view.setMxx(zoom);
+            view.setMyy(zoom);
+            view.setTx(x - (x - view.getTx()) * factor);
+            view.setTy(y - (y - view.getTy()) * factor);
+            updateViewport();
+            for (Layer layer : layers) {
+                layer.background.invalidateAll();
+            }
+            redraw.start();
+        }
+
+        /**
+         * Replaces the background tiles of every layer with ones covering the resized canvas.
+         */
+        private void resizeBackground() {
+            endGroupScale();
+            for (Layer layer : layers) {
+                layer.resize();
+            }
+            redraw.start();
+            updateViewport();
+        }
+
+        /**
+         * Removes a shape from the canvas and from its layer.
+         *
+         * @param shape the shape to remove
+         */
+        private void removeShape(Shape shape) {
+            // Flattened shapes are only in the background; recently created shapes, like previews
+            // and undone shapes, are removed from the end in O(1)
+            Layer layer = layerOf(shape);
+            Utils.ShapeRepr repr = layer.flat.remove(shape);
+            List<Node> children = layer.content.getChildren();
+            int last = children.size()-1;
+            if (repr != null) {
+                invalidateFlat(repr, layer);
+            } else {
+                invalidateDot(layer.index.bounds(shape), layer);
+                if (children.get(last) == shape) {
+                    children.remove(last);
+                } else {
+                    children.remove(shape);
+                }
+            }
+            layer.index.remove(shape);
+            layer.snaps.remove(shape);
+            layer.staleSnaps.remove(shape);
+            inView.remove(shape);
+            setShown(shape, true);
+            if (journal != null) { journal.removed(shape); }
+        }
+
+        /**
+         * Removes all shapes from the canvas, dropping the current selection and preview.
+         */
+        void clearShapes() {
+            if (!selectedShape.isNull()) {
+                rotationCircle.setVisible(false);
+                selectedShape.set(null);
+            }
+            shapePreview = null;
+            endGroupScale();
+            selection.clear();
+            groupDragging = false;
+            groupImage.setVisible(false);
+            bandX = Double.NaN;
+            band.setVisible(false);
+            for (Layer layer : layers) {
+                layer.content.getChildren().clear();
+                layer.index.clear();
+                layer.snaps.clear();
+                layer.staleSnaps.clear();
+                if (!layer.flat.isEmpty()) {
+                    layer.flat.clear();
+                    layer.background.invalidateAll();
+                    redraw.start();
+                }
+            }
+            inView.clear();
+            history.clear();
+            if (journal != null) { journal.cleared(); }
+        }
+
+        /**
+         * Returns the canvas itself.
+         *
+         * @return the canvas
+         */
+        @Override
+        public Region node() {
+            return this;
+        }
+
+        /**
+         * Reverts the most recent edit. A shape that is still being drawn is discarded instead.
+         */
+        @Override
+        public void undo() {
+            endGroupScale();
+            if (shapePreview != null) {
+                removeShape(shapePreview);
+                shapePreview = null;
+                return;
+            }
+            history.undo();
+            flattenIdle();
+        }
+
+        /**
+         * Applies the most recently undone edit again.
+         */
+        @Override
+        public void redo() {
+            endGroupScale();
+            if (shapePreview == null) {
+                history.redo();
+                flattenIdle();
+            }
+        }
+
+        /**
+         * Moves the selected shapes above all other shapes of their layer.
+         */
+        @Override
+        public void bringToFront() {
+            reorder(true);
+        }
+
+        /**
+         * Moves the selected shapes below all other shapes of their layer.
+         */
+        @Override
+        public void sendToBack() {
+            reorder(false);
+        }
+
+        /**
+         * Moves the selected shapes to the top or bottom of their layer, keeping their relative order,
+         * recorded as a single undoable command.
+         *
+         * @param front {@code true} to move the shapes to the top, {@code false} to the bottom
+         */
+        private void reorder(boolean front) {
+            endGroupScale();
+            List<Shape> shapes = new ArrayList<>(selection);
+            if (shapes.isEmpty() && !selectedShape.isNull()) { shapes.add(selectedShape.value()); }
+            if (shapes.isEmpty()) { return; }
+
+            // Raising bottom to top and lowering top to bottom keeps the shapes in their relative order
+            HashMap<Shape, Long> z = new HashMap<>();
+            for (Shape shape : shapes) {
+                z.put(shape, layerOf(shape).index.z(shape));
+            }
+            Comparator<Shape> order = Comparator.comparingLong(z::get);
+            shapes.sort(front ? order : order.reversed());
+            List<UndoHistory.Command> parts = new ArrayList<>();
+            for (Shape shape : shapes) {
+                Layer layer = layerOf(shape);
+                Shape below = layer.index.below(shape);
+                moveToEnd(shape, layer, front);
+                parts.add(new RestackCommand(shape, layer, front, below));
+            }
+            history.record(parts.size() == 1 ? parts.get(0) : new GroupCommand(parts));
+        }
+
+        /**
+         * Moves a shape to the top or bottom of its layer.
+         *
+         * @param shape the shape to move
+         * @param layer the layer holding the shape
+         * @param front {@code true} to move the shape to the top, {@code false} to the bottom
+         */
+        private void moveToEnd(Shape shape, Layer layer, boolean front) {
+            if (front) {
+                layer.index.raise(shape);
+                if (journal != null) { journal.raised(shape); }
+            } else {
+                layer.index.lower(shape);
+                if (journal != null) { journal.lowered(shape); }
+            }
+            restack(shape, layer);
+        }
+
+        /**
+         * Applies a changed z-order of a shape to its layer. A live shape's node is moved in the children
+         * list directly above the nearest live node below it, by a removal and an insertion instead of
+         * sorting the list; a flattened shape is repainted in the background instead. The removal, the
+         * search for the node below and the walk past flattened shapes below it each cost O(n) in the
+         * layer's shapes.
+         *
+         * @param shape the shape whose z-order changed
+         * @param layer the layer holding the shape
+         */
+        private void restack(Shape shape, Layer layer) {
+            if (shape.getParent() != layer.content) {
+                repaintFlat(shape, layer);
+                return;
+            }
+            List<Node> children = layer.content.getChildren();
+            children.remove(shape);
+            if (layer.index.above(shape) == null) {
+                children.add(shape);
+                return;
+            }
+            // Flattened shapes have no node, so the search continues below them
+            Shape below = layer.index.below(shape);
+            while (below != null && below.getParent() != layer.content) {
+                below = layer.index.below(below);
+            }
+            children.add(below == null ? 0 : children.indexOf(below) + 1, shape);
+        }
+
+        /**
+         * Adds an empty layer above all others.
+         *
+         * @return the index of the new layer
+         */
+        int addLayer() {
+            Layer layer = new Layer("layer " + (layers.size()+1));
+            layer.content.setCache(true);
+            getChildren().addAll(getChildren().indexOf(world), List.of(layer.tiles, layer.content));
+            layers.add(layer);
+            if (journal != null) { journal.layerChanged(layers.size()-1, true, false); }
+            return layers.size()-1;
+        }
+
+        /**
+         * Returns the number of layers.
+         *
+         * @return number of layers
+         */
+        int layerCount() {
+            return layers.size();
+        }
+
+        /**
+         * Returns the name of a layer.
+         *
+         * @param index the index of the layer, from the bottom
+         * @return the name of the layer
+         */
+        String layerName(int index) {
+            return layers.get(index).name;
+        }
+
+        /**
+         * Makes a layer the one new shapes are drawn into. All other layers are cached as bitmaps,
+         * as they only change through undo, redo and selection edits.
+         *
+         * @param index the index of the layer, from the bottom
+         */
+        void setActiveLayer(int index) {
+            active = layers.get(index);
+            for (Layer layer : layers) {
+                layer.content.setCache(layer != active);
+            }
+        }
+
+        /**
+         * Returns whether a layer is shown.
+         *
+         * @param index the index of the layer, from the bottom
+         * @return {@code true} if the layer is shown, otherwise {@code false}
+         */
+        boolean isLayerVisible(int index) {
+            return layers.get(index).isVisible();
+        }
+
+        /**
+         * Shows or hides a layer. Hidden layers are neither rendered, culled, snapped to nor picked from.
+         *
+         * @param index   the index of the layer, from the bottom
+         * @param visible whether the layer is shown
+         */
+        void setLayerVisible(int index, boolean visible) {
+            endGroupScale();
+            Layer layer = layers.get(index);
+            layer.content.setVisible(visible);
+            layer.tiles.setVisible(visible);
+            if (!visible) { release(layer); }
+            if (journal != null) { journal.layerChanged(index, visible, layer.locked); }
+            updateViewport();
+            layer.background.invalidateAll();
+            redraw.start();
+        }
+
+        /**
+         * Returns whether a layer is locked.
+         *
+         * @param index the index of the layer, from the bottom
+         * @return {@code true} if the layer is locked, otherwise {@code false}
+         */
+        boolean isLayerLocked(int index) {
+            return layers.get(index).locked;
+        }
+
+        /**
+         * Locks or unlocks a layer. Shapes of locked layers are shown but cannot be selected or drawn.
+         *
+         * @param index  the index of the layer, from the bottom
+         * @param locked whether the layer is locked
+         */
+        void setLayerLocked(int index, boolean locked) {
+            endGroupScale();
+            Layer layer = layers.get(index);
+            layer.locked = locked;
+            layer.content.setMouseTransparent(locked);
+            if (locked) { release(layer); }
+            if (journal != null) { journal.layerChanged(index, layer.isVisible(), locked); }
+        }
+
+        /**
+         * Deselects the shapes of a layer that can no longer be edited and discards a shape being drawn into it.
+         *
+         * @param layer the hidden or locked layer
+         */
+        private void release(Layer layer) {
+            if (!selectedShape.isNull() && layer.index.contains(selectedShape.value())) { deselect(selectedShape.value()); }
+            for (Shape shape : selection) {
+                if (layer.index.contains(shape)) {
+                    clearSelection();
+                    break;
+                }
+            }
+            if (shapePreview != null && layer.index.contains(shapePreview)) {
+                removeShape(shapePreview);
+                shapePreview = null;
+            }
+            flattenIdle();
+        }
+
+        /**
+         * Deselects given shape if it is currently selected.
+         *
+         * @param shape the shape to deselect
+         */
+        private void deselect(Shape shape) {
+            if (selectedShape.value() == shape) {
+                rotationCircle.setVisible(false);
+                shape.setStroke(null);
+                selectedShape.set(null);
+            }
+            if (selection.remove(shape)) {
+                shape.setStroke(null);
+                if (selection.isEmpty()) {
+                    rotationCircle.setVisible(false);
+                } else {
+                    updateGroupCenter();
+                }
+            }
+        }
+
+        /**
+         * Selects a single shape, replacing any other selection.
+         *
+         * @param shape the shape to select
+         */
+        private void selectShape(Shape shape) {
+            clearSelection();
+            if (!selectedShape.isNull()) { selectedShape.value().setStroke(null); }
+            revive(List.of(shape));
+            selectedShape.set(shape);
+            placeHandle(shape);
+            rotationCircle.setVisible(shape instanceof Rotatable);
+            // Only selected shapes get a stroke width, unselected ones keep the shared default
+            shape.setStroke(Color.RED);
+            shape.setStrokeWidth(ShapeOps.OUTLINE_WIDTH);
+        }
+
+        /**
+         * Replaces the selection with given shapes. A single shape is selected on its own;
+         * several shapes are selected together, with the rotation circle at the center of their bounds.
+         *
+         * @param shapes the shapes to select, bottom to top
+         */
+        private void selectShapes(List<Shape> shapes) {
+            if (!selectedShape.isNull()) { deselect(selectedShape.value()); }
+            clearSelection();
+            if (shapes.size() == 1) { selectShape(shapes.get(0)); }
+            if (shapes.size() < 2) { return; }
+
+            revive(shapes);
+            for (Shape shape : shapes) {
+                selection.add(shape);
+                shape.setStroke(Color.RED);
+                shape.setStrokeWidth(ShapeOps.OUTLINE_WIDTH);
+            }
+            updateGroupCenter();
+            rotationCircle.setVisible(true);
+        }
+
+        /**
+         * Drops the multiple selection, if any.
+         */
+        private void clearSelection() {
+            if (selection.isEmpty()) { return; }
+            endGroupScale();
+            for (Shape shape : selection) {
+                shape.setStroke(null);
+            }
+            selection.clear();
+            rotationCircle.setVisible(false);
+        }
+
+        /**
+         * Recomputes the center of the selection's bounds and moves the rotation circle to it.
+         */
+        private void updateGroupCenter() {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (Shape shape : selection) {
+                Bounds bounds = shape.getBoundsInParent();
+                minX = Math.min(minX, bounds.getMinX());
+                minY = Math.min(minY, bounds.getMinY());
+                maxX = Math.max(maxX, bounds.getMaxX());
+                maxY = Math.max(maxY, bounds.getMaxY());
+            }
+            groupX = (minX + maxX) / 2;
+            groupY = (minY + maxY) / 2;
+            rotationCircle.setTranslateX(groupX);
+            rotationCircle.setTranslateY(groupY);
+        }
+
+        /**
+         * Starts dragging a rubber band from given point.
+         *
+         * @param x the X coordinate of the starting corner
+         * @param y the Y coordinate of the starting corner
+         */
+        private void startBand(double x, double y) {
+            bandX = x;
+            bandY = y;
+            updateBand(x, y);
+            band.setVisible(true);
+        }
+
+        /**
+         * Stretches the rubber band to given point.
+         *
+         * @param x the X coordinate of the opposite corner
+         * @param y the Y coordinate of the opposite corner
+         */
+        private void updateBand(double x, double y) {
+            band.setX(Math.min(bandX, x));
+            band.setY(Math.min(bandY, y));
+            band.setWidth(Math.abs(x - bandX));
+            band.setHeight(Math.abs(y - bandY));
+        }
+
+        /**
+         * Finishes the rubber band, selecting all shapes whose bounds lie entirely within it.
+         * Candidates come from spatial index queries of the visible, unlocked layers, so only
+         * shapes around the band are examined.
+         */
+        private void endBand() {
+            double minX = band.getX(), minY = band.getY();
+            double maxX = minX + band.getWidth(), maxY = minY + band.getHeight();
+            bandX = Double.NaN;
+            band.setVisible(false);
+
+            for (Layer layer : layers) {
+                if (layer.isEditable()) { layer.index.query(minX, minY, maxX, maxY, found); }
+            }
+            List<Shape> enclosed = new ArrayList<>();
+            for (Shape shape : found) {
+                Bounds bounds = shape.getBoundsInParent();
+                if (shape != shapePreview && bounds.getMinX() >= minX && bounds.getMinY() >= minY
+                        && bounds.getMaxX() <= maxX && bounds.getMaxY() <= maxY) {
+                    enclosed.add(shape);
+                }
+            }
+            found.clear();
+            selectShapes(enclosed);
+        }
+
+        /**
+         * Starts dragging the selection as a whole, transforming the selection image instead of the shapes.
+         *
+         * @param x the X coordinate of the pointer
+         * @param y the Y coordinate of the pointer
+         */
+        private void startGroupDrag(double x, double y) {
+            groupDragging = true;
+            dragX = x;
+            dragY = y;
+            dragAngle = Math.toDegrees(Math.atan2(y - groupY, x - groupX));
+            paintGroup();
+        }
+
+        /**
+         * Paints the selected shapes once into the selection image and hides them, so that every following
+         * drag or wheel event only changes the image's translation, rotation or scale instead of every shape.
+         * Parts of the selection outside of the canvas are left out of the image. Shape types without a plain
+         * data implementation in {@link ShapeOps} cannot be painted, so they stay shown where they are until
+         * the transformation is finished.
+         */
+        private void paintGroup() {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (Shape shape : selection) {
+                Bounds bounds = shape.getBoundsInParent();
+                minX = Math.min(minX, bounds.getMinX());
+                minY = Math.min(minY, bounds.getMinY());
+                maxX = Math.max(maxX, bounds.getMaxX());
+                maxY = Math.max(maxY, bounds.getMaxY());
+            }
+            // The image covers the selection on the canvas, at the resolution of the current zoom
+            Bounds area = world.localToParent(new BoundingBox(minX, minY, maxX - minX, maxY - minY));
+            minX = Math.floor(Math.max(area.getMinX(), 0));
+            minY = Math.floor(Math.max(area.getMinY(), 0));
+            maxX = Math.ceil(Math.min(area.getMaxX(), getWidth()));
+            maxY = Math.ceil(Math.min(area.getMaxY(), getHeight()));
+            groupImage.setWidth(Math.max(0, maxX - minX));
+            groupImage.setHeight(Math.max(0, maxY - minY));
+            groupImage.relocate(minX, minY);
+            groupImage.setTranslateX(0);
+            groupImage.setTranslateY(0);
+            groupRotation.setAngle(0);
+            groupScale.setX(1);
+            groupScale.setY(1);
+            Point2D pivot = world.localToParent(groupX, groupY);
+            groupRotation.setPivotX(pivot.getX() - minX);
+            groupRotation.setPivotY(pivot.getY() - minY);
+            groupScale.setPivotX(pivot.getX() - minX);
+            groupScale.setPivotY(pivot.getY() - minY);
+
+            GraphicsContext gc = groupImage.getGraphicsContext2D();
+            gc.clearRect(0, 0, groupImage.getWidth(), groupImage.getHeight());
+            gc.save();
+            gc.translate(-minX, -minY);
+            applyView(gc);
+            for (Shape shape : selection) {
+                if (!(shape instanceof Repr repr) || !ShapeOps.supports(shape.getClass())) { continue; }
+                ShapeOps.draw(gc, repr.createRepr(), true);
+                setShown(shape, false);
+            }
+            gc.restore();
+            groupImage.setVisible(true);
+        }
+
+        /**
+         * Moves the selection image to follow the pointer, or rotates it while the rotation circle is dragged.
+         *
+         * @param x the X coordinate of the pointer
+         * @param y the Y coordinate of the pointer
+         */
+        private void dragGroup(double x, double y) {
+            if (rotationCircle.getIsRotating()) {
+                groupRotation.setAngle(Math.toDegrees(Math.atan2(y - groupY, x - groupX)) - dragAngle);
+            } else {
+                groupImage.setTranslateX((x - dragX) * view.getMxx());
+                groupImage.setTranslateY((y - dragY) * view.getMxx());
+                rotationCircle.setTranslateX(groupX + x - dragX);
+                rotationCircle.setTranslateY(groupY + y - dragY);
+            }
+        }
+
+        /**
+         * Finishes dragging the selection, baking the transformation of the selection image into the shapes.
+         */
+        private void endGroupDrag() {
+            groupDragging = false;
+            groupImage.setVisible(false);
+            double zoom = view.getMxx();
+            transformSelection(groupImage.getTranslateX() / zoom, groupImage.getTranslateY() / zoom, groupRotation.getAngle(), 1);
+        }
+
+        /**
+         * Scales the selection image by one wheel tick around the selection center. The scaling is only
+         * baked into the shapes once the wheel stops, or any other input arrives.
+         *
+         * @param factor the scale factor of the tick
+         */
+        private void scaleGroup(double factor) {
+            if (!groupScaling) {
+                groupScaling = true;
+                paintGroup();
+            }
+            groupScale.setX(groupScale.getX() * factor);
+            groupScale.setY(groupScale.getY() * factor);
+            groupScaleEnd.playFromStart();
+        }
+
+        /**
+         * Finishes scaling the selection with the mouse wheel, baking the scale of the selection image
+         * into the shapes as a single undoable command. Does nothing unless the selection is being scaled.
+         */
+        private void endGroupScale() {
+            if (!groupScaling) { return; }
+            groupScaling = false;
+            groupScaleEnd.stop();
+            groupImage.setVisible(false);
+            transformSelection(0, 0, 0, groupScale.getX());
+        }
+
+        /**
+         * Transforms every selected shape as a part of the whole selection: scales and rotates it
+         * around the selection center, then translates it. Each shape is rotated and resized around its
+         * own center, which is moved to where the group transformation takes it. The change is recorded
+         * as a single undoable command.
+         *
+         * @param dx    the offset along the X axis
+         * @param dy    the offset along the Y axis
+         * @param angle the rotation angle in degrees
+         * @param scale the scale factor
+         */
+        private void transformSelection(double dx, double dy, double angle, double scale) {
+            double cos = Math.cos(Math.toRadians(angle));
+            double sin = Math.sin(Math.toRadians(angle));
+            boolean moves = dx != 0 || dy != 0 || angle != 0 || scale != 1;
+            List<UndoHistory.Command> parts = new ArrayList<>();
+            for (Shape shape : selection) {
+                // Shapes rotate and scale around this local point, which the group transformation moves;
+                // shape types unknown to ShapeOps use the center of their local bounds
+                Point2D center;
+                if (shape instanceof Repr repr && ShapeOps.supports(shape.getClass())) {
+                    double[] local = ShapeOps.center(repr.createRepr());
+                    center = shape.localToParent(local[0], local[1]);
+                } else {
+                    Bounds local = shape.getBoundsInLocal();
+                    center = shape.localToParent(local.getCenterX(), local.getCenterY());
+                }
+                double rx = center.getX() - groupX;
+                double ry = center.getY() - groupY;
+                double tx = groupX + scale * (cos*rx - sin*ry) + dx - center.getX();
+                double ty = groupY + scale * (sin*rx + cos*ry) + dy - center.getY();
+
+                if (angle != 0 && shape instanceof Rotatable rotatable) {
+                    double from = rotatable.getAngle();
+                    rotatable.setAngle(from + angle);
+                    if (journal != null) { journal.angled(shape, from + angle); }
+                    parts.add(new RotateCommand(shape, from, from + angle));
+                }
+                if (scale != 1 && shape instanceof Resizable resizable) {
+                    double from = resizable.getSize();
+                    resizable.setSize(from * scale);
+                    if (journal != null) { journal.sized(shape, from * scale); }
+                    parts.add(new ResizeCommand(shape, from, from * scale));
+                }
+                // Shapes left in place still get a translation part, so that every edit of the selection
+                // made of the same kinds of changes has the same parts, which merge one by one
+                if (moves && shape instanceof Movable movable) {
+                    if (tx != 0 || ty != 0) {
+                        movable.translate(tx, ty);
+                        if (journal != null) { journal.translated(shape, tx, ty); }
+                    }
+                    parts.add(new TranslateCommand(shape, tx, ty));
+                }
+                updateShape(shape);
+            }
+            if (!parts.isEmpty()) { history.record(new GroupCommand(parts)); }
+            updateGroupCenter();
+        }
+
+        /**
+         * Fills every selected shape with given color, recorded as a single undoable command.
+         *
+         * @param color the new fill color
+         */
+        private void recolorSelection(Color color) {
+            int to = Utils.toRgba(color);
+            Color fill = Utils.fromRgba(to);
+            List<UndoHistory.Command> parts = new ArrayList<>();
+            for (Shape shape : selection) {
+                int from = Utils.toRgba((Color) shape.getFill());
+                if (from == to) { continue; }
+                shape.setFill(fill);
+                if (journal != null) { journal.recolored(shape, to); }
+                parts.add(new RecolorCommand(shape, from, to));
+            }
+            if (!parts.isEmpty()) { history.record(new GroupCommand(parts)); }
+        }
+
+        /**
+         * Undoable change of several shapes made by a single edit of the selection.
+         */
+        private class GroupCommand implements UndoHistory.Command {
+            /** Changes of the individual shapes, in the order they were applied. */
+            private final List<UndoHistory.Command> parts;
+
+            /**
+             * Constructs a GroupCommand.
+             *
+             * @param _parts changes of the individual shapes, in the order they were applied
+             */
+            GroupCommand(List<UndoHistory.Command> _parts) {
+                parts = _parts;
+            }
+
+            /**
+             * Reverts all changes in reverse order.
+             */
+            @Override
+            public void undo() {
+                for (int i = parts.size()-1; i >= 0; i--) {
+                    parts.get(i).undo();
+                }
+                if (!selection.isEmpty()) { updateGroupCenter(); }
+            }
+
+            /**
+             * Applies all changes again.
+             */
+            @Override
+            public void redo() {
+                for (UndoHistory.Command part : parts) {
+                    part.redo();
+                }
+                if (!selection.isEmpty()) { updateGroupCenter(); }
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                long size = 16 + 8L*parts.size();
+                for (UndoHistory.Command part : parts) {
+                    size += part.size();
+                }
+                return size;
+            }
+
+            /**
+             * Merges a following edit of the same selection part by part, so that repeated transformations
+             * of the selection undo at once. Only edits made of the same kinds of changes in the same order are merged.
+             *
+             * @param next the command recorded after this one
+             * @return {@code true} if the command was merged, otherwise {@code false}
+             */
+            @Override
+            public boolean merge(UndoHistory.Command next) {
+                if (!(next instanceof GroupCommand other) || other.parts.size() != parts.size()) { return false; }
+                for (int i = 0; i < parts.size(); i++) {
+                    if (parts.get(i).getClass() != other.parts.get(i).getClass()) { return false; }
+                }
+                // Edits recorded without sealing the history in between change the same selection,
+                // so either every part merges or, like recoloring, none does
+                for (int i = 0; i < parts.size(); i++) {
+                    if (!parts.get(i).merge(other.parts.get(i))) { return false; }
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Undoable creation of a shape.
+         */
+        private class CreateCommand implements UndoHistory.Command {
+            /** The created shape, kept alive while it can be redone. */
+            private final Shape shape;
+
+            /** The layer the shape was created in. */
+            private final Layer layer;
+
+            /**
+             * Constructs a CreateCommand.
+             *
+             * @param _shape the created shape
+             * @param _layer the layer the shape was created in
+             */
+            CreateCommand(Shape _shape, Layer _layer) {
+                shape = _shape;
+                layer = _layer;
+            }
+
+            /**
+             * Reverts the creation.
+             */
+            @Override
+            public void undo() {
+                deselect(shape);
+                removeShape(shape);
+            }
+
+            /**
+             * Applies the creation again.
+             */
+            @Override
+            public void redo() {
+                addShape(shape, layer);
+                if (journal != null) { journal.created(shape, layers.indexOf(layer)); }
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                // The detached node is retained by the command
+                return 1024;
+            }
+        }
+
+        /**
+         * Undoable shift of a shape by a delta.
+         */
+        private class TranslateCommand implements UndoHistory.Command {
+            /** The shifted shape. */
+            private final Shape shape;
+            /** The applied offsets. */
+            private double dx, dy;
+
+            /**
+             * Constructs a TranslateCommand.
+             *
+             * @param _shape the shifted shape
+             * @param _dx    the offset along the X axis
+             * @param _dy    the offset along the Y axis
+             */
+            TranslateCommand(Shape _shape, double _dx, double _dy) {
+                shape = _shape;
+                dx = _dx;
+                dy = _dy;
+            }
+
+            /**
+             * Reverts the shift.
+             */
+            @Override
+            public void undo() {
+                apply(-dx, -dy);
+            }
+
+            /**
+             * Applies the shift again.
+             */
+            @Override
+            public void redo() {
+                apply(dx, dy);
+            }
+
+            /**
+             * Shifts the shape by given offsets.
+             *
+             * @param x the offset along the X axis
+             * @param y the offset along the Y axis
+             */
+            private void apply(double x, double y) {
+                ((Movable) shape).translate(x, y);
+                updateShape(shape);
+                if (journal != null) { journal.translated(shape, x, y); }
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                return 40;
+            }
+
+            /**
+             * Absorbs a following shift of the same shape.
+             *
+             * @param next the following command
+             * @return {@code true} if the command was absorbed, otherwise {@code false}
+             */
+            @Override
+            public boolean merge(UndoHistory.Command next) {
+                if (!(next instanceof TranslateCommand other) || other.shape != shape) { return false; }
+                dx += other.dx;
+                dy += other.dy;
+                return true;
+            }
+        }
+
+        /**
+         * Undoable change of a shape's size.
+         */
+        private class ResizeCommand implements UndoHistory.Command {
+            /** The resized shape. */
+            private final Shape shape;
+            /** Size before and after the change. */
+            private double from, to;
+
+            /**
+             * Constructs a ResizeCommand.
+             *
+             * @param _shape the resized shape
+             * @param _from  size before the change
+             * @param _to    size after the change
+             */
+            ResizeCommand(Shape _shape, double _from, double _to) {
+                shape = _shape;
+                from = _from;
+                to = _to;
+            }
+
+            /**
+             * Reverts the size change.
+             */
+            @Override
+            public void undo() {
+                apply(from);
+            }
+
+            /**
+             * Applies the size change again.
+             */
+            @Override
+            public void redo() {
+                apply(to);
+            }
+
+            /**
+             * Sets the shape's size.
+             *
+             * @param size the size to set
+             */
+            private void apply(double size) {
+                ((Resizable) shape).setSize(size);
+                updateShape(shape);
+                if (journal != null) { journal.sized(shape, size); }
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                return 40;
+            }
+
+            /**
+             * Absorbs a following size change of the same shape.
+             *
+             * @param next the following command
+             * @return {@code true} if the command was absorbed, otherwise {@code false}
+             */
+            @Override
+            public boolean merge(UndoHistory.Command next) {
+                if (!(next instanceof ResizeCommand other) || other.shape != shape) { return false; }
+                to = other.to;
+                return true;
+            }
+        }
+
+        /**
+         * Undoable change of a shape's rotation angle.
+         */
+        private class RotateCommand implements UndoHistory.Command {
+            /** The rotated shape. */
+            private final Shape shape;
+            /** Angle before and after the change. */
+            private double from, to;
+
+            /**
+             * Constructs a RotateCommand.
+             *
+             * @param _shape the rotated shape
+             * @param _from  angle before the change
+             * @param _to    angle after the change
+             */
+            RotateCommand(Shape _shape, double _from, double _to) {
+                shape = _shape;
+                from = _from;
+                to = _to;
+            }
+
+            /**
+             * Reverts the rotation.
+             */
+            @Override
+            public void undo() {
+                apply(from);
+            }
+
+            /**
+             * Applies the rotation again.
+             */
+            @Override
+            public void redo() {
+                apply(to);
+            }
+
+            /**
+             * Sets the shape's rotation angle.
+             *
+             * @param angle the angle to set
+             */
+            private void apply(double angle) {
+                ((Rotatable) shape).setAngle(angle);
+                updateShape(shape);
+                if (journal != null) { journal.angled(shape, angle); }
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                return 40;
+            }
+
+            /**
+             * Absorbs a following rotation of the same shape.
+             *
+             * @param next the following command
+             * @return {@code true} if the command was absorbed, otherwise {@code false}
+             */
+            @Override
+            public boolean merge(UndoHistory.Command next) {
+                if (!(next instanceof RotateCommand other) || other.shape != shape) { return false; }
+                to = other.to;
+                return true;
+            }
+        }
+
+        /**
+         * Undoable change of a shape's fill color.
+         */
+        private class RecolorCommand implements UndoHistory.Command {
+            /** The recolored shape. */
+            private final Shape shape;
+            /** Packed colors before and after the change. */
+            private final int from, to;
+
+            /**
+             * Constructs a RecolorCommand.
+             *
+             * @param _shape the recolored shape
+             * @param _from  packed color before the change
+             * @param _to    packed color after the change
+             */
+            RecolorCommand(Shape _shape, int _from, int _to) {
+                shape = _shape;
+                from = _from;
+                to = _to;
+            }
+
+            /**
+             * Reverts the color change.
+             */
+            @Override
+            public void undo() {
+                apply(from);
+            }
+
+            /**
+             * Applies the color change again.
+             */
+            @Override
+            public void redo() {
+                apply(to);
+            }
+
+            /**
+             * Sets the shape's fill color.
+             *
+             * @param rgba the packed color to set
+             */
+            private void apply(int rgba) {
+                shape.setFill(Utils.fromRgba(rgba));
+                repaintFlat(shape, layerOf(shape));
+                if (journal != null) { journal.recolored(shape, rgba); }
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                return 32;
+            }
+        }
+
+        /**
+         * Undoable move of a shape to the top or bottom of its layer.
+         */
+        private class RestackCommand implements UndoHistory.Command {
+            /** The moved shape. */
+            private final Shape shape;
+            /** The layer holding the shape. */
+            private final Layer layer;
+            /** Whether the shape was moved to the top rather than the bottom. */
+            private final boolean front;
+            /** The shape directly below the moved one before the move, or {@code null} if it was at the bottom. */
+            private final Shape below;
+
+            /**
+             * Constructs a RestackCommand.
+             *
+             * @param _shape the moved shape
+             * @param _layer the layer holding the shape
+             * @param _front whether the shape was moved to the top rather than the bottom
+             * @param _below the shape directly below the moved one before the move, or {@code null} if it was at the bottom
+             */
+            RestackCommand(Shape _shape, Layer _layer, boolean _front, Shape _below) {
+                shape = _shape;
+                layer = _layer;
+                front = _front;
+                below = _below;
+            }
+
+            /**
+             * Reverts the move, placing the shape back above its former neighbour, which
+             * the linear history guarantees to be in the same place again.
+             */
+            @Override
+            public void undo() {
+                layer.index.placeAbove(shape, below);
+                restack(shape, layer);
+                if (journal != null) { journal.restacked(shape, below); }
+            }
+
+            /**
+             * Applies the move again.
+             */
+            @Override
+            public void redo() {
+                moveToEnd(shape, layer, front);
+            }
+
+            /**
+             * Returns the estimated memory footprint of the command.
+             *
+             * @return estimated size in bytes
+             */
+            @Override
+            public long size() {
+                return 48;
+            }
+        }
+
+        /**
+         * Places a batch of shapes on top of all other shapes of the active layer with a single children list change.
+         *
+         * @param shapes the shapes to add
+         */
+        void appendShapes(List<Shape> shapes) {
+            appendShapes(shapes, active);
+        }
+
+        /**
+         * Places a batch of shapes on top of all other shapes of a layer with a single children list change.
+         *
+         * @param shapes the shapes to add
+         * @param layer  the layer to add the shapes to
+         */
+        private void appendShapes(List<Shape> shapes, Layer layer) {
+            List<Shape> live = flattened ? new ArrayList<>() : shapes;
+            int index = layers.indexOf(layer);
+            for (Shape shape : shapes) {
+                layer.index.insert(shape);
+                indexSnapPoints(shape, layer);
+                cull(shape);
+                if (journal != null) { journal.created(shape, index); }
+                if (flattened) {
+                    if (ShapeOps.supports(shape.getClass())) {
+                        flatten(shape, layer);
+                    } else {
+                        live.add(shape);
+                    }
+                }
+            }
+            layer.content.getChildren().addAll(live);
+        }
+
+        /**
+         * Returns all shapes on the canvas, including flattened ones and those in hidden layers.
+         *
+         * @return shapes on the canvas, bottom to top
+         */
+        List<Shape> shapes() {
+            int size = 0;
+            for (Layer layer : layers) {
+                size += layer.index.size();
+            }
+            List<Shape> shapes = new ArrayList<>(size);
+            for (Layer layer : layers) {
+                layer.index.all(shapes);
+            }
+            return shapes;
+        }
+
+        /**
+         * Turns flattening on or off. While flattening is on, every shape that is not selected or
+         * being drawn is detached from the scene graph and drawn into the cached background tiles
+         * from its {@link Utils.ShapeRepr}, so the number of nodes and the cost of a frame do not grow
+         * with the drawing. Shapes picked in EDIT mode become live nodes again, drawn above the background
+         * while they are edited, and are flattened back at their place in the z-order once deselected.
+         *
+         * @param _flattened whether shapes are flattened
+         */
+        void setFlattened(boolean _flattened) {
+            endGroupScale();
+            if (flattened == _flattened) { return; }
+            flattened = _flattened;
+            if (flattened) {
+                flattenIdle();
+                return;
+            }
+
+            // All shapes become nodes again, restoring the children lists in z-order
+            for (Layer layer : layers) {
+                if (layer.flat.isEmpty()) { continue; }
+                List<Shape> shapes = new ArrayList<>(layer.index.size());
+                layer.index.all(shapes);
+                layer.flat.clear();
+                layer.content.getChildren().setAll(shapes);
+                layer.background.invalidateAll();
+            }
+            redraw.start();
+        }
+
+        /**
+         * Flattens every live shape that is neither selected nor being drawn. Only the children lists,
+         * which hold just the live shapes while flattening is on, are examined. Shape types without
+         * a plain data implementation in {@link ShapeOps} always stay live.
+         */
+        private void flattenIdle() {
+            if (!flattened) { return; }
+            for (Layer layer : layers) {
+                List<Node> children = layer.content.getChildren();
+                List<Node> live = new ArrayList<>(children.size());
+                for (Node node : children) {
+                    if (node instanceof Repr && node instanceof Shape shape && shape != shapePreview && shape != selectedShape.value()
+                            && !selection.contains(shape) && ShapeOps.supports(shape.getClass())) {
+                        flatten(shape, layer);
+                    } else {
+                        live.add(node);
+                    }
+                }
+                if (live.size() < children.size()) { layer.content.getChildren().setAll(live); }
+            }
+        }
+
+        /**
+         * Records the representation of a shape being flattened and marks its area of the layer's
+         * background for repainting. Detaching the node is left to the caller.
+         *
+         * @param shape the shape to flatten
+         * @param layer the layer holding the shape
+         */
+        private void flatten(Shape shape, Layer layer) {
+            Utils.ShapeRepr repr = ((Repr) shape).createRepr();
+            layer.flat.put(shape, repr);
+            invalidateFlat(repr, layer);
+        }
+
+        /**
+         * Turns flattened shapes back into live nodes placed above all others of their layer, removing them
+         * from the background. Shapes that are already live are left as they are.
+         *
+         * @param shapes the shapes to revive
+         */
+        private void revive(List<Shape> shapes) {
+            for (Layer layer : layers) {
+                if (layer.flat.isEmpty()) { continue; }
+                List<Shape> revived = new ArrayList<>();
+                for (Shape shape : shapes) {
+                    Utils.ShapeRepr repr = layer.flat.remove(shape);
+                    if (repr == null) { continue; }
+                    invalidateFlat(repr, layer);
+                    revived.add(shape);
+                }
+                layer.content.getChildren().addAll(revived);
+            }
+        }
+
+        /**
+         * Refreshes the representation of a flattened shape after it was changed, repainting its old
+         * and new area of the background. Live shapes are ignored.
+         *
+         * @param shape the changed shape
+         * @param layer the layer holding the shape
+         */
+        private void repaintFlat(Shape shape, Layer layer) {
+            Utils.ShapeRepr repr = layer.flat.get(shape);
+            if (repr == null) { return; }
+            invalidateFlat(repr, layer);
+            repr = ((Repr) shape).createRepr();
+            layer.flat.put(shape, repr);
+            invalidateFlat(repr, layer);
+        }
+
+        /**
+         * Marks the background tiles of a layer covered by the painted area of a flattened shape
+         * to be re-rendered on the next pulse.
+         *
+         * @param repr  representation of the flattened shape
+         * @param layer the layer holding the shape
+         */
+        private void invalidateFlat(Utils.ShapeRepr repr, Layer layer) {
+            layer.background.invalidate(world.localToParent(ShapeOps.paintBounds(repr)));
+            redraw.start();
+        }
+
+        /**
+         * Marks the background tiles of a layer under a live shape smaller than a pixel to be re-rendered
+         * on the next pulse, as such shapes are hidden and drawn into the background as dots instead.
+         * Bounds spanning at least a pixel are ignored.
+         *
+         * @param bounds bounds of the live shape in world coordinates
+         * @param layer  the layer holding the shape
+         */
+        private void invalidateDot(Bounds bounds, Layer layer) {
+            if (spansPixel(bounds)) { return; }
+            layer.background.invalidate(world.localToParent(bounds));
+            redraw.start();
+        }
+
+        /**
+         * Renders the flattened shapes of a layer intersecting a background tile through the view transform.
+         * Shapes smaller than a pixel, whether flattened or live, are aggregated into single pixel dots
+         * colored by the topmost of them, so a far zoom costs one pixel write per shape.
+         *
+         * @param layer the layer whose shapes are rendered
+         * @param gc    the graphics context of the tile
+         * @param minX  the minimum X coordinate of the tile on the canvas
+         * @param minY  the minimum Y coordinate of the tile on the canvas
+         * @param maxX  the maximum X coordinate of the tile on the canvas
+         * @param maxY  the maximum Y coordinate of the tile on the canvas
+         */
+        private void renderFlat(Layer layer, GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+            Bounds area = world.parentToLocal(new BoundingBox(minX, minY, maxX - minX, maxY - minY));
+            layer.index.query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), visibleFlat);
+            PixelWriter pixels = gc.getPixelWriter();
+            gc.save();
+            applyView(gc);
+            for (Shape shape : visibleFlat) {
+                Bounds bounds = shape.getBoundsInParent();
+                if (!spansPixel(bounds)) {
+                    // The pixel writer ignores the transform and addresses the tile's own pixels
+                    int x = (int) Math.floor(bounds.getCenterX() * view.getMxx() + view.getTx() - minX);
+                    int y = (int) Math.floor(bounds.getCenterY() * view.getMyy() + view.getTy() - minY);
+                    if (x >= 0 && y >= 0 && x < maxX - minX && y < maxY - minY) {
+                        int rgba = Utils.toRgba((Color) shape.getFill());
+                        pixels.setArgb(x, y, (rgba << 24) | (rgba >>> 8));
+                    }
+                    continue;
+                }
+                Utils.ShapeRepr repr = layer.flat.get(shape);
+                if (repr != null) { ShapeOps.draw(gc, repr, false); }
+            }
+            gc.restore();
+            visibleFlat.clear();
+        }
+
+        /**
+         * Applies the view transform to a graphics context, so that drawing uses world coordinates.
+         *
+         * @param gc the graphics context drawing on the canvas
+         */
+        private void applyView(GraphicsContext gc) {
+            gc.transform(view.getMxx(), view.getMyx(), view.getMxy(), view.getMyy(), view.getTx(), view.getTy());
+        }
+
+        /**
+         * A layer of the drawing with its own shapes, indexes and background tiles.
+         *
+         * <p>The z-order of a layer's shapes is kept by its spatial index, where raising and lowering a shape
+         * costs O(1), and the live nodes are kept in the same order in the children list. Moving a shape only
+         * moves its own node, but the children list is an array, so finding and moving the node costs O(n)
+         * in the layer's shapes; other layers are not touched at all. Only shapes revived for editing while
+         * flattening is on are drawn above the other live ones until they are flattened back. Layers other
+         * than the active one are cached as bitmaps by the scene graph.</p>
+         */
+        private class Layer {
+            /** Name of the layer shown in the layer list. */
+            final String name;
+            /** Spatial index over the bounds of the layer's shapes, also holding their z-order. */
+            final SpatialIndex<Shape> index = new SpatialIndex<>(128, SpatialIndex.NODES);
+            /** Representations of the flattened shapes, which are detached from the scene graph and drawn into the background. */
+            final HashMap<Shape, Utils.ShapeRepr> flat = new HashMap<>();
+            /** Index of the vertices, edge midpoints and centers of the layer's shapes, which drawing tools snap to. */
+            final SnapIndex<Shape> snaps = new SnapIndex<>(64);
+            /** Shapes changed since their snap points were last indexed, which are refreshed before the next snap query. */
+            final HashSet<Shape> staleSnaps = new HashSet<>();
+            /** Group holding the background tiles in canvas coordinates. */
+            final Group tiles = new Group();
+            /** Group holding the live shapes in world coordinates. */
+            final Group content = new Group();
+            /** Tile images covering the canvas, which the flattened shapes and the dots standing for shapes smaller than a pixel are drawn into. */
+            TileCache background;
+            /** Whether the shapes of the layer cannot be selected or drawn. */
+            boolean locked = false;
+
+            /**
+             * Constructs an empty, visible and unlocked layer.
+             *
+             * @param _name name of the layer
+             */
+            Layer(String _name) {
+                name = _name;
+                tiles.setManaged(false);
+                tiles.setMouseTransparent(true);
+                content.getTransforms().add(view);
+                content.setManaged(false);
+                content.setCacheHint(CacheHint.QUALITY);
+                resize();
+            }
+
+            /**
+             * Returns whether the layer is shown.
+             *
+             * @return {@code true} if the layer is shown, otherwise {@code false}
+             */
+            boolean isVisible() {
+                return content.isVisible();
+            }
+
+            /**
+             * Returns whether shapes of the layer can be selected and drawn.
+             *
+             * @return {@code true} if the layer is visible and unlocked, otherwise {@code false}
+             */
+            boolean isEditable() {
+                return isVisible() && !locked;
+            }
+
+            /**
+             * Replaces the background tiles with ones covering the resized canvas.
+             */
+            void resize() {
+                background = new TileCache(getWidth(), getHeight(), 256, (gc, minX, minY, maxX, maxY) -> renderFlat(this, gc, minX, minY, maxX, maxY));
+                tiles.getChildren().setAll(background.tiles());
+            }
+        }
+
+        /**
+         * Recovers the drawing from the edit journal stored in given directory
+         * and starts journaling further edits into it.
+         * If recovery fails, the journal files are left untouched and edits are not journaled.
+         *
+         * @param dir directory holding the journal files
+         */
+        @Override
+        public void openJournal(File dir) {
+            Journal opened = new Journal(dir, this::journalLayers);
+            List<Journal.Layer> recovered;
+            try {
+                recovered = opened.recover();
+            } catch (IOException e) {
+                System.err.println("Drawing not recovered, journaling disabled: " + e.getMessage());
+                return;
+            }
+            for (int i = 0; i < recovered.size(); i++) {
+                if (i == layers.size()) { addLayer(); }
+                Journal.Layer layer = recovered.get(i);
+                appendShapes(layer.shapes(), layers.get(i));
+                setLayerVisible(i, layer.visible());
+                setLayerLocked(i, layer.locked());
+            }
+            opened.start(journalLayers());
+            journal = opened;
+        }
+
+        /**
+         * Returns all layers with their shapes, including flattened ones, for the edit journal.
+         *
+         * @return layers on the canvas, bottom to top
+         */
+        private List<Journal.Layer> journalLayers() {
+            List<Journal.Layer> journaled = new ArrayList<>(layers.size());
+            for (Layer layer : layers) {
+                List<Shape> shapes = new ArrayList<>(layer.index.size());
+                layer.index.all(shapes);
+                journaled.add(new Journal.Layer(shapes, layer.isVisible(), layer.locked));
+            }
+            return journaled;
+        }
+
+        /**
+         * Flushes and stops the edit journal.
+         */
+        @Override
+        public void closeJournal() {
+            endGroupScale();
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+
+        /**
+         * Creates an immutable snapshot of all shapes on the canvas.
+         *
+         * @return representations of all shapes, bottom to top
+         */
+        Utils.ShapeRepr[] snapshot() {
+            endGroupScale();
+            List<Shape> shapes = shapes();
+            Utils.ShapeRepr[] arr = new Utils.ShapeRepr[shapes.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = ((Repr) shapes.get(i)).createRepr();
+            }
+            return arr;
+        }
+
+        /**
+         * Returns the property holding the most recently started save or load task.
+         *
+         * @return the file task property
+         */
+        @Override
+        public ReadOnlyObjectProperty<Task<Void>> fileTaskProperty() {
+            return fileTask;
+        }
+
+        /**
+         * Publishes a save or load task and runs it on the file executor.
+         *
+         * @param task the task to run
+         */
+        private void startFileTask(Task<Void> task) {
+            fileTask.set(task);
+            fileExecutor.execute(task);
+        }
+
+    }
+
+    /**
+     * A drawing surface rendering shapes in immediate mode. Shapes are kept as plain
+     * {@link Utils.ShapeRepr} data and drawn with a {@link GraphicsContext} into cached
+     * tile images, instead of being scene graph nodes. Every change re-renders only the tiles
+     * intersecting the old and new painted bounds of the changed shape.
+     * Drawing, previewing and editing behave as on {@link Canvas}; edits are neither
+     * journaled nor recorded in an undo history.
+     */
+    public static class ImmediateCanvas extends Pane implements Surface {
+        /** Tile images the shapes are drawn into. */
+        private final TileCache tiles = new TileCache(1600, 900, 256, this::render);
+        /** Reusable buffer receiving the shapes found for a rendered tile. */
+        private final List<Utils.ShapeRepr> visible = new ArrayList<>();
+        /** Number of tiles re-rendered in the most recent frame. */
+        private final IntegerProperty tilesRedrawn = new SimpleIntegerProperty();
+        /** All shapes, bottom to top. */
+        private final List<Utils.ShapeRepr> shapes = new ArrayList<>();
+        /** Spatial index over the bounds of all shapes, used for selection. */
+        private final SpatialIndex<Utils.ShapeRepr> spatialIndex = new SpatialIndex<>(128, ShapeOps.GEOMETRY);
+        /** The shape being drawn, or {@code null} if none. */
+        private Utils.ShapeRepr shapePreview = null;
+        /** The point the shape being drawn was started at. */
+        private double previewX, previewY;
+        /** The selected shape, or {@code null} if none. */
+        private Utils.ShapeRepr selectedShape = null;
+        /** Whether the selected shape is being rotated with its handle. */
+        private boolean isRotating = false;
+        /** The most recently started save or load task. */
+        private final ObjectProperty<Task<Void>> fileTask = new SimpleObjectProperty<>();
+        /** Timer re-rendering the dirty tiles once on the next pulse after a change. */
+        private final AnimationTimer redraw = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                tilesRedrawn.set(tiles.redraw());
+            }
+        };
+
+        /**
+         * Constructs a new ImmediateCanvas that tracks mouse events and allows shape drawing.
+         *
+         * @param mouseX         a property holding the current mouse X coordinate
+         * @param mouseY         a property holding the current mouse Y coordinate
+         * @param selectedButton the selected shape tool
+         * @param selectedColor  color picker holding the fill color of new shapes
+         * @param input          input stage applying pointer motion events
+         * @param perf           monitor timing the event handlers
+         */
+        ImmediateCanvas(DoubleProperty mouseX, DoubleProperty mouseY, Buttons.ButtonSelector selectedButton, ColorPicker selectedColor, InputStage input, PerfMonitor perf) {
+            super();
+            setMaxSize(1600, 900);
+            setMinSize(1600, 900);
+            setPrefSize(1600, 900);
+            setStyle("-fx-background-color: white");
+            getChildren().addAll(tiles.tiles());
+
+            EventHandler<MouseEvent> moved = perf.timed("move", event -> {
+                mouseX.set(event.getX());
+                mouseY.set(event.getY());
+                updatePreview(selectedButton, event.getX(), event.getY());
+                if (selectedShape != null && selectedButton.get() != Buttons.EDIT) { select(null); }
+            });
+            this.setOnMouseMoved(event -> input.submit(event, moved));
+
+            addEventHandler(FileEvent.LOAD, perf.timed("load", event -> {
+                startFileTask(new ReprLoadTask(event.getFile(), this::setShapes));
+            }));
+
+            addEventHandler(FileEvent.SAVE, perf.timed("save", event -> {
+                startFileTask(new SaveTask(event.getFile(), snapshot()));
+            }));
+
+            addEventHandler(FileEvent.EXPORT, event -> {
+                startFileTask(new ExportTask(event.getFile(), snapshot()));
+            });
+
+            EventHandler<MouseEvent> dragged = perf.timed("drag", event -> {
+                mouseX.set(event.getX());
+                mouseY.set(event.getY());
+
+                switch (selectedButton.get()) {
+                    case null -> {}
+
+                    case Buttons.EDIT -> {
+                        if (selectedShape == null) { return; }
+                        invalidate(selectedShape);
+                        EditorEvents.Transform transform = new EditorEvents.Transform();
+                        transform.begin();
+                        if (isRotating) {
+                            ShapeOps.rotate(selectedShape, event.getX() - ShapeOps.pivotX(selectedShape), event.getY() - ShapeOps.pivotY(selectedShape));
+                        } else {
+                            ShapeOps.move(selectedShape, event.getX(), event.getY());
+                        }
+                        transform.finish(isRotating ? "rotate" : "move", selectedShape.shapeType);
+                        spatialIndex.update(selectedShape);
+                        invalidate(selectedShape);
+                    }
+
+                    default -> {
+                        updatePreview(selectedButton, event.getX(), event.getY());
+                        if (selectedShape != null) { select(null); }
+                    }
+                }
+            });
+            this.setOnMouseDragged(event -> input.submit(event, dragged));
+            // Pending pointer input is applied before buttons change the gesture
+            this.addEventFilter(MouseEvent.MOUSE_PRESSED, event -> input.flush());
+            this.addEventFilter(MouseEvent.MOUSE_RELEASED, event -> input.flush());
+
+            this.setOnMouseReleased(event -> {
+                isRotating = false;
+            });
+
+            this.setOnMouseExited(event -> {
+                input.flush();
+                mouseX.set(-1);
+                mouseY.set(-1);
+            });
+
+            this.setOnMousePressed(perf.timed("press", event -> {
+                switch (selectedButton.get()) {
+                    case null -> {}
+
+                    case Buttons.EDIT -> {
+                        // The rotation handle is drawn above all shapes, so it is picked first
+                        if (selectedShape != null && ShapeOps.isRotatable(selectedShape)
+                                && ShapeOps.hitsHandle(selectedShape, event.getX(), event.getY())) {
+                            isRotating = true;
+                            return;
+                        }
+
+                        EditorEvents.SelectionScan scan = new EditorEvents.SelectionScan();
+                        scan.begin();
+                        Utils.ShapeRepr shape = spatialIndex.pick(event.getX(), event.getY());
+                        scan.finish(spatialIndex.examined(), shape != null);
+                        if (shape != null) { select(shape); }
+
+                        if (event.getButton() == MouseButton.SECONDARY && selectedShape != null) {
+                            selectedShape.color = Utils.toRgba(selectedColor.getValue());
+                            invalidate(selectedShape);
+                        }
+                    }
+
+                    default -> {
+                        if (event.getButton() == MouseButton.SECONDARY) {
+                            if (shapePreview != null) {
+                                removeShape(shapePreview);
+                                shapePreview = null;
+                            }
+                            return;
+                        }
+
+                        if (shapePreview == null) {
+                            // Shape types provided by plugins have no immediate-mode implementation
+                            if (!ShapeOps.supports(selectedButton.getShape().shapeClass())) { return; }
+                            shapePreview = ShapeOps.create(selectedButton.getShape().shapeClass(), event.getX(), event.getY(), selectedColor.getValue());
+                            previewX = event.getX();
+                            previewY = event.getY();
+                            shapes.add(shapePreview);
+                            spatialIndex.insert(shapePreview);
+                            invalidate(shapePreview);
+                        } else if (shapePreview.shapeType == Polygon.class) {
+                            invalidate(shapePreview);
+                            boolean closed = ShapeOps.nextPoint(shapePreview, event.getX(), event.getY());
+                            spatialIndex.update(shapePreview);
+                            invalidate(shapePreview);
+                            if (closed) { shapePreview = null; }
+                        } else {
+                            shapePreview = null;
+                        }
+                    }
+                }
+            }));
+
+            this.setOnScroll(perf.timed("scroll", event -> {
+                if (selectedButton.get() == Buttons.EDIT && selectedShape != null) {
+                    invalidate(selectedShape);
+                    EditorEvents.Transform transform = new EditorEvents.Transform();
+                    transform.begin();
+                    ShapeOps.resize(selectedShape, event.getDeltaY());
+                    transform.finish("resize", selectedShape.shapeType);
+                    spatialIndex.update(selectedShape);
+                    invalidate(selectedShape);
+                }
+            }));
+        }
+
+        /**
+         * Updates the shape being drawn to follow the cursor, discarding it if another tool was selected.
+         *
+         * @param selectedButton the selected shape tool
+         * @param x              the X coordinate of the cursor
+         * @param y              the Y coordinate of the cursor
+         */
+        private void updatePreview(Buttons.ButtonSelector selectedButton, double x, double y) {
+            if (shapePreview == null) { return; }
+            if (selectedButton.draws(shapePreview.shapeType)) {
+                invalidate(shapePreview);
+                ShapeOps.preview(shapePreview, x, y, previewX, previewY);
+                spatialIndex.update(shapePreview);
+                invalidate(shapePreview);
+            } else {
+                removeShape(shapePreview);
+                shapePreview = null;
+            }
+        }
+
+        /**
+         * Changes the selected shape.
+         *
+         * @param shape the shape to select, or {@code null} to clear the selection
+         */
+        private void select(Utils.ShapeRepr shape) {
+            if (selectedShape != null) { invalidate(selectedShape); }
+            selectedShape = shape;
+            isRotating = false;
+            if (selectedShape != null) { invalidate(selectedShape); }
+        }
+
+        /**
+         * Removes a shape from the canvas and from the spatial index.
+         *
+         * @param shape the shape to remove
+         */
+        private void removeShape(Utils.ShapeRepr shape) {
+            invalidate(shape);
+            // Previews are always on top, so they are removed from the end in O(1)
+            int last = shapes.size()-1;
+            if (shapes.get(last) == shape) {
+                shapes.remove(last);
+            } else {
+                shapes.remove(shape);
+            }
+            spatialIndex.remove(shape);
+        }
+
+        /**
+         * Replaces all shapes on the canvas, dropping the current selection and preview.
+         *
+         * @param loaded the new shapes, bottom to top
+         */
+        private void setShapes(List<Utils.ShapeRepr> loaded) {
+            selectedShape = null;
+            shapePreview = null;
+            isRotating = false;
+            shapes.clear();
+            spatialIndex.clear();
+            shapes.addAll(loaded);
+            for (Utils.ShapeRepr shape : loaded) {
+                spatialIndex.insert(shape);
+            }
+            tiles.invalidateAll();
+            redraw.start();
+        }
+
+        /**
+         * Marks the tiles covered by the current painted area of a shape, including the rotation
+         * handle if it is selected, to be re-rendered on the next pulse. Changes call this both
+         * before and after modifying the shape, so that its old and new area are repainted.
+         *
+         * @param shape the changed shape
+         */
+        private void invalidate(Utils.ShapeRepr shape) {
+            tiles.invalidate(ShapeOps.paintBounds(shape));
+            if (shape == selectedShape && ShapeOps.isRotatable(shape)) { tiles.invalidate(ShapeOps.handleBounds(shape)); }
+            redraw.start();
+        }
+
+        /**
+         * Renders the shapes intersecting a tile and the rotation handle of the selected shape.
+         *
+         * @param gc   the graphics context of the tile
+         * @param minX the minimum X coordinate of the tile
+         * @param minY the minimum Y coordinate of the tile
+         * @param maxX the maximum X coordinate of the tile
+         * @param maxY the maximum Y coordinate of the tile
+         */
+        private void render(GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+            spatialIndex.query(minX, minY, maxX, maxY, visible);
+            for (Utils.ShapeRepr shape : visible) {
+                ShapeOps.draw(gc, shape, shape == selectedShape);
+            }
+            visible.clear();
+            if (selectedShape != null && ShapeOps.isRotatable(selectedShape)
+                    && ShapeOps.handleBounds(selectedShape).intersects(minX, minY, maxX - minX, maxY - minY)) {
+                ShapeOps.drawHandle(gc, selectedShape);
+            }
+        }
+
+        /**
+         * Returns the property holding the number of tiles re-rendered in the most recent frame.
+         *
+         * @return the tiles redrawn property
+         */
+        public ReadOnlyIntegerProperty tilesRedrawnProperty() {
+            return tilesRedrawn;
+        }
+
+        /**
+         * Creates an immutable snapshot of all shapes on the canvas.
+         *
+         * @return copies of all shapes, bottom to top
+         */
+        Utils.ShapeRepr[] snapshot() {
+            Utils.ShapeRepr[] arr = new Utils.ShapeRepr[shapes.size()];
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = shapes.get(i).copy();
+            }
+            return arr;
+        }
+
+        /**
+         * Returns the canvas itself.
+         *
+         * @return the canvas
+         */
+        @Override
+        public Region node() {
+            return this;
+        }
+
+        /**
+         * Returns the property holding the most recently started save or load task.
+         *
+         * @return the file task property
+         */
+        @Override
+        public ReadOnlyObjectProperty<Task<Void>> fileTaskProperty() {
+            return fileTask;
+        }
+
+        /**
+         * Publishes a save or load task and runs it on the file executor.
+         *
+         * @param task the task to run
+         */
+        private void startFileTask(Task<Void> task) {
+            fileTask.set(task);
+            Canvas.fileExecutor.execute(task);
+        }
+    }
+
+    /**
+     * A custom menu button that updates a ButtonSelector when clicked.
+     */
+    public static class MenuButton extends Button {
+        /**
+         * Constructs a new MenuButton.
+         *
+         * @param text   the text displayed on the button
+         * @param select action selecting the button's tool in a ButtonSelector
+         */
+        MenuButton(String text, Runnable select) {
+            super(text);
+
+            this.setOnAction(event -> {
+                select.run();
+            });
+        }
+    }
+
+    /**
+     * A button that opens a child stage displaying information loaded from a file.
+     */
+    public static class InfoButton extends Button {
+        private final VBox content = new VBox();
+
+        /**
+         * Constructs an InfoButton that opens a window with content from a text file.
+         *
+         * @param text         the name of the file (without extension) to load and also button's label
+         * @param primaryStage the parent stage for modal positioning
+         * @param isOpen       property indicating whether the info window is already open
+         */
+        InfoButton(String text, Stage primaryStage, BooleanProperty isOpen) {
+            super(text);
+            
+            try {
+                File file = new File("./resources/" + text + ".txt");
+                Scanner stream = new Scanner(file);
+                while (stream.hasNextLine()) {
+                    content.getChildren().add(new Label(stream.nextLine()));
+                }
+                
+                stream.close();
+            } catch (FileNotFoundException e) {
+                System.out.println("An error occurred.");
+                e.printStackTrace();
+            }
+            content.setAlignment(Pos.CENTER);
+            
+            this.setOnAction(new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent event) {
+                    if (!isOpen.get()) {
+                        Stage infoStage = new ChildStage(content, primaryStage, isOpen);
+                        infoStage.show();
+                        isOpen.set(true);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * A secondary window (child stage) for displaying informational content.
+     */
+    public static class ChildStage extends Stage {
+        /**
+         * Constructs a non-resizable child stage with given content.
+         *
+         * @param content  the VBox containing the content to display
+         * @param owner    the parent stage
+         * @param isOpen   property to reset when the window is closed
+         */
+        ChildStage(VBox content, Stage owner, BooleanProperty isOpen) {
+            super();
+            StackPane wrapper = new StackPane(content);
+            wrapper.setAlignment(Pos.CENTER);
+            this.setScene(new Scene(wrapper, 400, 400));
+            this.setResizable(false);
+            this.initOwner(owner);
+            this.setOnCloseRequest(event -> {
+                isOpen.set(false);
+            });
+        }
+    }
+
+    /**
+     * A status bar showing the current mouse coordinates in the format "X : Y".
+     */
+    public static class Cords extends HBox {
+        /**
+         * Constructs a Cords display element bound to mouse coordinates.
+         *
+         * @param mouseX the mouse's X coordinate property
+         * @param mouseY the mouse's Y coordinate property
+         */
+        Cords(DoubleProperty mouseX, DoubleProperty mouseY) {
+            super();
+
+            Label mX = new Label();
+            Label mY = new Label();
+            mX.textProperty().bind(mouseX.asString("%.0f"));
+            mY.textProperty().bind(mouseY.asString("%.0f"));
+            
+            this.getChildren().addAll(mX, new Label(" : "), mY);
+            this.setAlignment(Pos.CENTER);
+            this.setMinWidth(80);
+        }
+    }
+
+    /**
+     * A circle used as the input method for shape rotation.
+     */
+    private static class RotationCircle extends javafx.scene.shape.Circle {
+        /**
+         * Flag indicating whether the shape is being rotated.
+         */
+        private boolean isRotating = false;
+        /**
+         * Rotation angle of the shape when the current rotation started.
+         */
+        private double startAngle = 0;
+
+        /**
+         * Constructs a RotationCircle binding it to a shape selector.
+         * 
+         * @param selectedShape shape selector pointer
+         */
+        public RotationCircle(Utils.Pointer<Shape> selectedShape) {
+            super();
+            setRadius(20);
+            setFill(null);
+            setStroke(Color.BLUE);
+            setStrokeWidth(10);
+            // Only the gesture starts here; the drag bubbles up to the canvas, which rotates the shape
+            setOnMouseDragged(event -> {
+                if (!isRotating && selectedShape.value() instanceof Rotatable rotatable) {
+                    startAngle = rotatable.getAngle();
+                }
+                isRotating = true;
+            });
+            setOnMouseReleased(event -> {
+                if (isRotating) { isRotating = false; }
+            });
+            setVisible(false);
+        }
+
+        /**
+         * Returns whether the shape is being rotated.
+         * 
+         * @return {@code true} if shape is being rotated, otherwise {@code false}
+         */
+        public boolean getIsRotating() {
+            return isRotating;
+        }
+
+        /**
+         * Returns the rotation angle of the shape when the current rotation started.
+         * 
+         * @return the starting rotation angle in degrees
+         */
+        public double getStartAngle() {
+            return startAngle;
+        }
+    }
+    
+    /**
+     * A custom used for save/load functionality. 
+     */
+    public static class FileEvent extends Event {
+        /** FileEvent variant representing save operation */
+        public static final EventType<FileEvent> SAVE = new EventType<>(Event.ANY, "SAVE");
+        /** FileEvent variant representing save operation */
+        public static final EventType<FileEvent> LOAD = new EventType<>(Event.ANY, "LOAD");
+        /** FileEvent variant representing export to SVG */
+        public static final EventType<FileEvent> EXPORT = new EventType<>(Event.ANY, "EXPORT");
+        /** Selected file to save into/load from */
+        private final File file;
+
+        /**
+         * Constructs a FileEvent of specified type
+         * 
+         * @param eventType type of the event
+         * @param file      selected file
+         */
+        public FileEvent(EventType<? extends FileEvent> eventType, File file) {
+            super(eventType);
+            this.file = file;
+        }
+
+        /**
+         * Returns the file to save into/load from
+         * 
+         * @return the file object
+         */
+        public File getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * A background task encoding a snapshot of the drawing into a file.
+     * The snapshot is written into a temporary file first, which replaces the target
+     * only once writing succeeds, so a failed or cancelled save never corrupts it.
+     */
+    public static final class SaveTask extends Task<Void> {
+        /** The file to save into. */
+        private final File file;
+        /** Representations of the saved shapes. */
+        private final Utils.ShapeRepr[] shapes;
+
+        /**
+         * Constructs a SaveTask.
+         *
+         * @param _file   the file to save into
+         * @param _shapes snapshot of the saved shapes
+         */
+        public SaveTask(File _file, Utils.ShapeRepr[] _shapes) {
+            file = _file;
+            shapes = _shapes;
+            updateTitle("save");
+        }
+
+        /**
+         * Writes the snapshot, reporting progress after every record.
+         *
+         * @return nothing
+         * @throws Exception if writing fails
+         */
+        @Override
+        protected Void call() throws Exception {
+            EditorEvents.Save event = new EditorEvents.Save();
+            event.begin();
+            File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            try {
+                try (DocumentFormat.Writer writer = new DocumentFormat.Writer(temp, shapes.length)) {
+                    for (int i = 0; i < shapes.length; i++) {
+                        if (isCancelled()) { return null; }
+                        writer.write(shapes[i]);
+                        updateProgress(i+1, shapes.length);
+                    }
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+            event.finish(file, shapes.length);
+            return null;
+        }
+    }
+
+    /**
+     * A background task exporting a snapshot of the drawing into an SVG image.
+     * Like {@link SaveTask}, it writes into a temporary file which replaces the target
+     * only once writing succeeds.
+     */
+    public static final class ExportTask extends Task<Void> {
+        /** The file to export into. */
+        private final File file;
+        /** Representations of the exported shapes. */
+        private final Utils.ShapeRepr[] shapes;
+
+        /**
+         * Constructs an ExportTask.
+         *
+         * @param _file   the file to export into
+         * @param _shapes snapshot of the exported shapes
+         */
+        public ExportTask(File _file, Utils.ShapeRepr[] _shapes) {
+            file = _file;
+            shapes = _shapes;
+            updateTitle("export");
+        }
+
+        /**
+         * Streams the snapshot into the image, reporting progress after every shape.
+         *
+         * @return nothing
+         * @throws Exception if writing fails
+         */
+        @Override
+        protected Void call() throws Exception {
+            File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            try {
+                try (SvgWriter writer = new SvgWriter(temp, ShapeOps.drawingBounds(shapes))) {
+                    for (int i = 0; i < shapes.length; i++) {
+                        if (isCancelled()) { return null; }
+                        writer.write(shapes[i]);
+                        updateProgress(i+1, shapes.length);
+                    }
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A background task decoding a file and streaming the recreated shapes into a loader stage.
+     * The canvas is cleared only once the file header has been successfully read.
+     */
+    public static final class LoadTask extends Task<Void> {
+        /** Number of shapes handed over to the loader at once. */
+        private static final int BATCH_SIZE = 1000;
+        /** The file to load from. */
+        private final File file;
+        /** The loader stage attaching the shapes to the canvas. */
+        private final ShapeLoader loader;
+        /** Whether the loader has already been told that this task offers no more batches. */
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        /**
+         * Constructs a LoadTask.
+         *
+         * @param _file   the file to load from
+         * @param _loader the loader stage attaching the shapes to the canvas
+         */
+        public LoadTask(File _file, ShapeLoader _loader) {
+            file = _file;
+            loader = _loader;
+            updateTitle("load");
+        }
+
+        /**
+         * Reads the file, recreating shapes off the application thread and
+         * handing them over to the loader in batches.
+         *
+         * @return nothing
+         * @throws Exception if reading fails
+         */
+        @Override
+        protected Void call() throws Exception {
+            EditorEvents.Load event = new EditorEvents.Load();
+            event.begin();
+            try (DocumentFormat.Reader reader = new DocumentFormat.Reader(file)) {
+                loader.clear();
+                List<Shape> batch = new ArrayList<>(BATCH_SIZE);
+                int read = 0;
+                while (reader.hasNext()) {
+                    if (isCancelled()) { return null; }
+                    batch.add(reader.next().recreate());
+                    read++;
+                    if (batch.size() == BATCH_SIZE || !reader.hasNext()) {
+                        loader.offer(batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                        updateProgress(read, reader.count());
+                    }
+                }
+                event.finish(file, read);
+            } finally {
+                finish();
+            }
+            return null;
+        }
+
+        /**
+         * Tells the loader that this task offers no more batches, including tasks
+         * cancelled before they started running.
+         */
+        @Override
+        protected void cancelled() {
+            finish();
+        }
+
+        /**
+         * Tells the loader that this task offers no more batches, at most once.
+         */
+        private void finish() {
+            if (finished.compareAndSet(false, true)) { loader.finish(); }
+        }
+    }
+
+    /**
+     * An input stage applying pointer motion events to their handlers.
+     *
+     * <p>With coalescing enabled, only the latest submitted event is kept and applied once
+     * on the next pulse, so high-rate mice cost one preview, move or rotation per frame.
+     * A pending event is applied early when an event for a different handler is submitted,
+     * or when {@link #flush()} is called before a button changes the gesture.
+     * Counts of received and applied events are published once per pulse.</p>
+     */
+    public static class InputStage extends AnimationTimer {
+        /** Whether events are coalesced to once per pulse. */
+        private final BooleanProperty coalescing;
+        /** Number of received events, published once per pulse. */
+        private final LongProperty receivedProperty = new SimpleLongProperty();
+        /** Number of applied events, published once per pulse. */
+        private final LongProperty appliedProperty = new SimpleLongProperty();
+        /** Number of received events. */
+        private long received = 0;
+        /** Number of applied events. */
+        private long applied = 0;
+        /** The latest event waiting to be applied, or {@code null} if none. */
+        private MouseEvent pending = null;
+        /** The handler of the pending event. */
+        private EventHandler<MouseEvent> pendingHandler = null;
+
+        /**
+         * Constructs an InputStage.
+         *
+         * @param _coalescing whether events are initially coalesced to once per pulse
+         */
+        InputStage(boolean _coalescing) {
+            coalescing = new SimpleBooleanProperty(_coalescing);
+            coalescing.addListener((obs, was, is) -> flush());
+        }
+
+        /**
+         * Submits an event to be applied by given handler, immediately or on the next pulse.
+         *
+         * @param event   the event
+         * @param handler the handler applying the event
+         */
+        public void submit(MouseEvent event, EventHandler<MouseEvent> handler) {
+            received++;
+            if (!coalescing.get()) {
+                apply(handler, event);
+            } else {
+                if (pending != null && pendingHandler != handler) { flush(); }
+                pending = event;
+                pendingHandler = handler;
+            }
+            start();
+        }
+
+        /**
+         * Applies the pending event, if any.
+         */
+        public void flush() {
+            if (pending == null) { return; }
+            MouseEvent event = pending;
+            pending = null;
+            apply(pendingHandler, event);
+        }
+
+        /**
+         * Applies the pending event and publishes the counters.
+         *
+         * @param now timestamp of the current frame in nanoseconds
+         */
+        @Override
+        public void handle(long now) {
+            flush();
+            receivedProperty.set(received);
+            appliedProperty.set(applied);
+            stop();
+        }
+
+        /**
+         * Passes an event to its handler.
+         *
+         * @param handler the handler
+         * @param event   the event
+         */
+        private void apply(EventHandler<MouseEvent> handler, MouseEvent event) {
+            applied++;
+            handler.handle(event);
+        }
+
+        /**
+         * Returns the property holding whether events are coalesced to once per pulse.
+         *
+         * @return the coalescing property
+         */
+        public BooleanProperty coalescingProperty() {
+            return coalescing;
+        }
+
+        /**
+         * Returns the property holding the number of received events.
+         *
+         * @return the received property
+         */
+        public ReadOnlyLongProperty receivedProperty() {
+            return receivedProperty;
+        }
+
+        /**
+         * Returns the property holding the number of applied events.
+         *
+         * @return the applied property
+         */
+        public ReadOnlyLongProperty appliedProperty() {
+            return appliedProperty;
+        }
+    }
+
+    /**
+     * A performance monitor measuring pulses and event handler latencies while enabled.
+     *
+     * <p>While enabled, the monitor runs as an animation timer recording the interval between
+     * consecutive pulses, and timed handlers record how long each call takes. Samples go into
+     * {@link LatencyHistogram} ring buffers, and a report of pulse frequency, frame time and
+     * handler latency percentiles together with the number of canvas children is published
+     * twice a second. While disabled, timed handlers are called directly without measuring.
+     * Keeping the timer running makes JavaFX pulse continuously, so the pulse frequency shows
+     * how many frames the application thread manages, not how many it needs.</p>
+     */
+    public static class PerfMonitor extends AnimationTimer {
+        /** Number of most recent samples kept per histogram. */
+        private static final int SAMPLES = 512;
+        /** Interval between published reports in nanoseconds. */
+        private static final long REPORT_INTERVAL = 500_000_000L;
+        /** Requested percentiles. */
+        private static final double[] PERCENTILES = {50, 95, 99, 100};
+
+        /** Whether measuring is enabled. */
+        private final BooleanProperty enabled = new SimpleBooleanProperty(false);
+        /** The most recently published report. */
+        private final StringProperty report = new SimpleStringProperty("");
+        /** Intervals between consecutive pulses. */
+        private final LatencyHistogram frames = new LatencyHistogram(SAMPLES);
+        /** Call durations of the timed handlers, in registration order. */
+        private final LinkedHashMap<String, LatencyHistogram> handlers = new LinkedHashMap<>();
+        /** The node whose children are counted, or {@code null} if none. */
+        private Parent watched = null;
+        /** Timestamp of the previous pulse, or 0 if none since enabling. */
+        private long lastPulse = 0;
+        /** Timestamp of the previous report, or 0 if none since enabling. */
+        private long lastReport = 0;
+        /** Number of pulses since the previous report. */
+        private int pulses = 0;
+
+        /**
+         * Constructs a disabled PerfMonitor.
+         */
+        PerfMonitor() {
+            enabled.addListener((obs, was, is) -> {
+                if (is) {
+                    lastPulse = 0;
+                    lastReport = 0;
+                    pulses = 0;
+                    frames.clear();
+                    handlers.values().forEach(LatencyHistogram::clear);
+                    start();
+                } else {
+                    stop();
+                }
+            });
+        }
+
+        /**
+         * Sets the node whose number of children is reported.
+         *
+         * @param node the watched node
+         */
+        public void watch(Parent node) {
+            watched = node;
+        }
+
+        /**
+         * Wraps an event handler so that its calls are timed under given name while measuring is enabled.
+         *
+         * @param <T>     the type of the handled events
+         * @param name    the name the handler is reported under
+         * @param handler the handler to time
+         * @return the timed handler
+         */
+        public <T extends Event> EventHandler<T> timed(String name, EventHandler<T> handler) {
+            LatencyHistogram histogram = handlers.computeIfAbsent(name, key -> new LatencyHistogram(SAMPLES));
+            return event -> {
+                if (!enabled.get()) {
+                    handler.handle(event);
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    handler.handle(event);
+                } finally {
+                    histogram.record(System.nanoTime() - start);
+                }
+            };
+        }
+
+        /**
+         * Records the interval since the previous pulse and periodically publishes a report.
+         *
+         * @param now timestamp of the current frame in nanoseconds
+         */
+        @Override
+        public void handle(long now) {
+            if (lastPulse != 0) { frames.record(now - lastPulse); }
+            lastPulse = now;
+            pulses++;
+            if (lastReport == 0) {
+                lastReport = now;
+                pulses = 0;
+            } else if (now - lastReport >= REPORT_INTERVAL) {
+                publish(now - lastReport);
+                lastReport = now;
+                pulses = 0;
+            }
+        }
+
+        /**
+         * Formats and publishes the current report.
+         *
+         * @param elapsed time since the previous report in nanoseconds
+         */
+        private void publish(long elapsed) {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("pulse  %5.1f Hz", pulses * 1e9 / elapsed));
+            if (watched != null) {
+                text.append(String.format("   nodes %d", watched.getChildrenUnmodifiable().size()));
+            }
+            text.append(String.format("%n%-6s %s", "frame", percentiles(frames)));
+            handlers.forEach((name, histogram) -> {
+                text.append(String.format("%n%-6s %s  n=%d", name, percentiles(histogram), histogram.count()));
+            });
+            report.set(text.toString());
+        }
+
+        /**
+         * Formats the percentiles of a histogram in milliseconds.
+         *
+         * @param histogram the histogram
+         * @return the formatted percentiles
+         */
+        private static String percentiles(LatencyHistogram histogram) {
+            long[] values = histogram.percentiles(PERCENTILES);
+            return String.format("p50 %7.3f  p95 %7.3f  p99 %7.3f  max %7.3f ms",
+                values[0] / 1e6, values[1] / 1e6, values[2] / 1e6, values[3] / 1e6);
+        }
+
+        /**
+         * Returns the property holding whether measuring is enabled.
+         *
+         * @return the enabled property
+         */
+        public BooleanProperty enabledProperty() {
+            return enabled;
+        }
+
+        /**
+         * Returns the property holding the most recently published report.
+         *
+         * @return the report property
+         */
+        public ReadOnlyStringProperty reportProperty() {
+            return report;
+        }
+    }
+
+    /**
+     * A background task decoding a file into shape representations for the immediate-mode canvas.
+     * The decoded shapes replace the drawing on the application thread once the whole file was read.
+     */
+    public static final class ReprLoadTask extends Task<Void> {
+        /** The file to load from. */
+        private final File file;
+        /** Consumer receiving the decoded shapes on the application thread. */
+        private final Consumer<List<Utils.ShapeRepr>> target;
+        /** The decoded shapes. */
+        private final List<Utils.ShapeRepr> shapes = new ArrayList<>();
+
+        /**
+         * Constructs a ReprLoadTask.
+         *
+         * @param _file   the file to load from
+         * @param _target consumer receiving the decoded shapes on the application thread
+         */
+        public ReprLoadTask(File _file, Consumer<List<Utils.ShapeRepr>> _target) {
+            file = _file;
+            target = _target;
+            updateTitle("load");
+        }
+
+        /**
+         * Reads the file, reporting progress after every record.
+         *
+         * @return nothing
+         * @throws Exception if reading fails
+         */
+        @Override
+        protected Void call() throws Exception {
+            EditorEvents.Load event = new EditorEvents.Load();
+            event.begin();
+            try (DocumentFormat.Reader reader = new DocumentFormat.Reader(file)) {
+                while (reader.hasNext()) {
+                    if (isCancelled()) { return null; }
+                    shapes.add(reader.next());
+                    updateProgress(shapes.size(), reader.count());
+                }
+            }
+            event.finish(file, shapes.size());
+            return null;
+        }
+
+        /**
+         * Hands the decoded shapes over to the canvas.
+         */
+        @Override
+        protected void succeeded() {
+            target.accept(shapes);
+        }
+    }
+
+    /**
+     * A loader stage attaching shapes produced by a load task to the canvas.
+     * On every pulse it attaches bounded batches of shapes until its time budget is spent,
+     * so large drawings become interactive progressively instead of freezing the application.
+     */
+    public static class ShapeLoader extends AnimationTimer {
+        /** Marker batch requesting the canvas to be cleared; compared by identity. */
+        private static final List<Shape> CLEAR = new ArrayList<>(0);
+        /** Maximum number of shapes attached with a single children list change. */
+        private static final int BATCH_SIZE = 256;
+        /** Time in nanoseconds a single pulse may spend attaching shapes. */
+        private static final long PULSE_BUDGET = 4_000_000;
+        /** Batches waiting to be attached. */
+        private final ConcurrentLinkedQueue<List<Shape>> queue = new ConcurrentLinkedQueue<>();
+        /** The canvas receiving the shapes. */
+        private final Canvas canvas;
+        /** The batch currently being attached. */
+        private List<Shape> current = null;
+        /** Position of the next shape to attach within the current batch. */
+        private int cursor = 0;
+        /** Number of load tasks that may still offer batches. */
+        private final AtomicInteger producers = new AtomicInteger();
+
+        /**
+         * Constructs a ShapeLoader for given canvas.
+         *
+         * @param _canvas the canvas receiving the shapes
+         */
+        ShapeLoader(Canvas _canvas) {
+            canvas = _canvas;
+        }
+
+        /**
+         * Starts attaching shapes on every pulse. Must be called on the application thread.
+         */
+        public void begin() {
+            producers.incrementAndGet();
+            start();
+        }
+
+        /**
+         * Requests the canvas to be cleared before any batch offered afterwards is attached.
+         */
+        public void clear() {
+            queue.add(CLEAR);
+        }
+
+        /**
+         * Offers a batch of recreated shapes to be attached.
+         *
+         * @param batch the shapes to attach
+         */
+        public void offer(List<Shape> batch) {
+            queue.add(batch);
+        }
+
+        /**
+         * Marks that a load task will offer no more batches; once no task is producing,
+         * the loader stops after the queue is drained.
+         */
+        public void finish() {
+            producers.decrementAndGet();
+        }
+
+        /**
+         * Attaches batches of shapes until the pulse budget is spent or the queue is empty.
+         *
+         * @param now timestamp of the current frame in nanoseconds
+         */
+        @Override
+        public void handle(long now) {
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < PULSE_BUDGET) {
+                if (current == null || cursor == current.size()) {
+                    current = queue.poll();
+                    cursor = 0;
+                    if (current == null) { break; }
+                    if (current == CLEAR) {
+                        canvas.clearShapes();
+                        current = null;
+                        continue;
+                    }
+                }
+                int end = Math.min(cursor + BATCH_SIZE, current.size());
+                canvas.appendShapes(current.subList(cursor, end));
+                cursor = end;
+            }
+
+            if (producers.get() == 0 && current == null && queue.isEmpty()) { stop(); }
+        }
+    }
+
+    /**
+     * A status element showing progress of the current save or load task,
+     * allowing to cancel it and reporting its failure.
+     */
+    public static class FileProgress extends HBox {
+        /** Bar showing progress of the running task. */
+        private final ProgressBar bar = new ProgressBar();
+        /** Label showing the state of the task. */
+        private final Label status = new Label();
+        /** Button cancelling the running task. */
+        private final Button cancel = new Button("cancel");
+
+        /**
+         * Constructs a FileProgress element following the given task property.
+         *
+         * @param fileTask property holding the most recently started file task
+         */
+        FileProgress(ReadOnlyObjectProperty<Task<Void>> fileTask) {
+            super(5);
+            this.getChildren().addAll(bar, cancel, status);
+            this.setAlignment(Pos.CENTER);
+            bar.setPrefWidth(120);
+            show(false);
+
+            fileTask.addListener((obs, oldTask, task) -> {
+                bar.progressProperty().bind(task.progressProperty());
+                status.setText(task.getTitle() + "...");
+                cancel.setOnAction(event -> task.cancel());
+                show(true);
+
+                // A newer task may have been started while this one was queued
+                task.setOnSucceeded(event -> {
+                    if (fileTask.get() != task) { return; }
+                    show(false);
+                    status.setText("");
+                });
+                task.setOnCancelled(event -> {
+                    if (fileTask.get() != task) { return; }
+                    show(false);
+                    status.setText(task.getTitle() + " cancelled");
+                });
+                task.setOnFailed(event -> {
+                    if (fileTask.get() != task) { return; }
+                    show(false);
+                    Throwable error = task.getException();
+                    status.setText(task.getTitle() + " failed: " + (error.getMessage() != null ? error.getMessage() : error));
+                });
+            });
+        }
+
+        /**
+         * Shows or hides the progress bar and the cancel button.
+         *
+         * @param running whether a task is running
+         */
+        private void show(boolean running) {
+            bar.setVisible(running);
+            bar.setManaged(running);
+            cancel.setVisible(running);
+            cancel.setManaged(running);
         }
     }
-}
\ No newline at end of file
+}
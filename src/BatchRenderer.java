@@ -0,0 +1,218 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import javafx.geometry.Bounds;
+
+/**
+ * A headless renderer rasterizing saved drawings into PNG images without the JavaFX toolkit.
+ *
+ * <p>Files are rendered in parallel by a fixed pool of workers fed through a bounded queue,
+ * so that submitting thousands of files never holds more than a few pending tasks in memory.
+ * Each drawing is streamed record by record from its file, once to find the area it covers
+ * and once to draw it, and shapes are rasterized with the same translation, rotation and scale
+ * as the {@link Circle}, {@link Rectangle} and {@link Polygon} nodes.</p>
+ */
+public class BatchRenderer {
+    /** Maximum number of pixels of a full-size image; images of larger drawings are scaled down to fit. */
+    private static final double MAX_PIXELS = 1 << 24;
+
+    /** Directory the images are written into. */
+    private final File outDir;
+    /** Number of worker threads. */
+    private final int threads;
+    /** Width of the thumbnails, or 0 if no thumbnails are written. */
+    private final int thumbnailWidth;
+
+    /**
+     * Constructs a BatchRenderer.
+     *
+     * @param _outDir         directory the images are written into
+     * @param _threads        number of worker threads
+     * @param _thumbnailWidth width of the thumbnails, or 0 to write only full-size images
+     */
+    public BatchRenderer(File _outDir, int _threads, int _thumbnailWidth) {
+        outDir = _outDir;
+        threads = _threads;
+        thumbnailWidth = _thumbnailWidth;
+    }
+
+    /**
+     * Renders all files and prints per-file timings followed by the overall throughput.
+     *
+     * @param files the saved drawings to render
+     * @param out   stream receiving the report
+     * @return number of files that failed to render
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public int render(List<File> files, PrintStream out) throws InterruptedException {
+        outDir.mkdirs();
+        List<Result> results = Collections.synchronizedList(new ArrayList<>(files.size()));
+        // A full queue makes the submitting thread render the file itself, which bounds the backlog
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(2 * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        for (File file : files) {
+            executor.execute(() -> results.add(renderFile(file)));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        int failed = 0;
+        long shapes = 0;
+        for (Result result : results) {
+            if (result.error() != null) {
+                failed++;
+                out.printf("%s: failed after %.1f ms: %s%n", result.file(), result.nanos() / 1e6, result.error());
+            } else {
+                shapes += result.shapes();
+                out.printf("%s: %d shapes in %.1f ms%n", result.file(), result.shapes(), result.nanos() / 1e6);
+            }
+        }
+        double seconds = elapsed / 1e9;
+        out.printf("rendered %d of %d files, %d shapes in %.2f s on %d threads: %.1f files/s, %.0f shapes/s%n",
+            files.size() - failed, files.size(), shapes, seconds, threads, (files.size() - failed) / seconds, shapes / seconds);
+        return failed;
+    }
+
+    /**
+     * Renders a single file into a full-size image covering the whole drawing and optionally a thumbnail.
+     *
+     * @param file the saved drawing
+     * @return the outcome of rendering
+     */
+    private Result renderFile(File file) {
+        long start = System.nanoTime();
+        try {
+            Bounds area = drawingBounds(file);
+            double scale = Math.min(1, Math.sqrt(MAX_PIXELS / (area.getWidth() * area.getHeight())));
+            int width = Math.max(1, (int) Math.ceil(area.getWidth() * scale));
+            int height = Math.max(1, (int) Math.ceil(area.getHeight() * scale));
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(java.awt.Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.scale(scale, scale);
+            g.translate(-area.getMinX(), -area.getMinY());
+            int shapes = 0;
+            try (DocumentFormat.Reader reader = new DocumentFormat.Reader(file)) {
+                while (reader.hasNext()) {
+                    draw(g, reader.next());
+                    shapes++;
+                }
+            } finally {
+                g.dispose();
+            }
+
+            String name = baseName(file);
+            ImageIO.write(image, "png", new File(outDir, name + ".png"));
+            if (thumbnailWidth > 0) {
+                ImageIO.write(thumbnail(image), "png", new File(outDir, name + ".thumb.png"));
+            }
+            return new Result(file, shapes, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(file, 0, System.nanoTime() - start, e.toString());
+        }
+    }
+
+    /**
+     * Finds the area covered by a saved drawing, streaming it record by record.
+     *
+     * @param file the saved drawing
+     * @return bounds of all pixels the drawing may paint, or {@link ShapeOps#EMPTY_DRAWING} if it paints none
+     * @throws IOException if the file cannot be read
+     */
+    static Bounds drawingBounds(File file) throws IOException {
+        Bounds bounds = null;
+        try (DocumentFormat.Reader reader = new DocumentFormat.Reader(file)) {
+            while (reader.hasNext()) {
+                bounds = ShapeOps.union(bounds, reader.next());
+            }
+        }
+        return bounds == null ? ShapeOps.EMPTY_DRAWING : bounds;
+    }
+
+    /**
+     * Rasterizes a single shape. Shape types without a plain data implementation are skipped.
+     *
+     * @param g    the graphics to draw with
+     * @param repr the shape
+     */
+    static void draw(Graphics2D g, Utils.ShapeRepr repr) {
+        if (!ShapeOps.supports(repr.shapeType)) { return; }
+        java.awt.Shape local;
+        if (repr.shapeType == Circle.class) {
+            double r = repr.args[0];
+            local = new Ellipse2D.Double(-r, -r, 2*r, 2*r);
+        } else if (repr.shapeType == Rectangle.class) {
+            local = new Rectangle2D.Double(0, 0, repr.args[0], repr.args[1]);
+        } else {
+            Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, repr.args.length/2);
+            path.moveTo(repr.args[2], repr.args[3]);
+            for (int i = 4; i + 1 < repr.args.length; i += 2) {
+                path.lineTo(repr.args[i], repr.args[i+1]);
+            }
+            path.closePath();
+            local = path;
+        }
+        int rgba = repr.color;
+        g.setColor(new java.awt.Color(rgba >>> 24, (rgba >>> 16) & 0xFF, (rgba >>> 8) & 0xFF, rgba & 0xFF));
+        g.fill(new AffineTransform(ShapeOps.transform(repr)).createTransformedShape(local));
+    }
+
+    /**
+     * Scales an image down to the thumbnail width, keeping its aspect ratio.
+     *
+     * @param image the full-size image
+     * @return the thumbnail
+     */
+    private BufferedImage thumbnail(BufferedImage image) {
+        int height = Math.max(1, image.getHeight() * thumbnailWidth / image.getWidth());
+        BufferedImage thumbnail = new BufferedImage(thumbnailWidth, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, thumbnailWidth, height, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * Returns the file name without its extension.
+     *
+     * @param file the file
+     * @return the base name
+     */
+    static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Outcome of rendering a single file.
+     *
+     * @param file   the rendered file
+     * @param shapes number of rendered shapes
+     * @param nanos  time spent on the file in nanoseconds
+     * @param error  description of the failure, or {@code null} if rendering succeeded
+     */
+    private record Result(File file, int shapes, long nanos, String error) {}
+}
@@ -1,22 +1,14 @@
 /**
- * Enum representing different button types and their associated shape classes and labels.
+ * Enum representing the editor tools selected by the menu buttons.
+ * Drawing buttons are created for every registered {@link ShapeType}.
  */
 public enum Buttons {
 
-    /** Button for creating a circle shape, associated with the Circle class. */
-    CIRCLE(Circle.class, "circle"),
+    /** Buttons for drawing shapes of the {@link ShapeType} held by the {@link ButtonSelector}. */
+    DRAW("draw"),
 
-    /** Button for creating a rectangle shape, associated with the Rectangle class. */
-    RECTANGLE(Rectangle.class, "rect"),
-
-    /** Button for creating a polygon shape, associated with the Polygon class. */
-    POLYGON(Polygon.class, "poly"),
-
-    /** Button for editing mode; not associated with a shape class. */
-    EDIT(Boolean.class, "edit");
-
-    /** The shape class associated with this button (may be null). */
-    private final Class<?> cls;
+    /** Button for editing mode; not associated with a shape type. */
+    EDIT("edit");
 
     /** The string label representing the button. */
     private final String text;
@@ -24,11 +16,9 @@ public enum Buttons {
     /**
      * Constructor for the Buttons enum.
      *
-     * @param _cls  the class representing the shape associated with the button (nullable)
      * @param _text the display text for the button
      */
-    private Buttons(Class<?> _cls, String _text) {
-        this.cls = _cls;
+    private Buttons(String _text) {
         this.text = _text;
     }
 
@@ -42,15 +32,6 @@ public enum Buttons {
         return this.text;
     }
 
-    /**
-     * Returns the class associated with this button.
-     *
-     * @return the Class object for the shape, or null if none
-     */
-    public Class<?> shape() {
-        return this.cls;
-    }
-
     /**
      * Utility class to manage selection of a Buttons enum.
      */
@@ -59,11 +40,15 @@ public enum Buttons {
         /** The currently selected button (nullable). */
         private Buttons button;
 
+        /** The shape type drawn by the selected button (nullable). */
+        private ShapeType shapeType;
+
         /**
          * Constructs an empty ButtonSelector with no selected button.
          */
         ButtonSelector() {
             button = null;
+            shapeType = null;
         }
 
         /**
@@ -73,6 +58,17 @@ public enum Buttons {
          */
         public void set(Buttons arg0) {
             this.button = arg0;
+            this.shapeType = null;
+        }
+
+        /**
+         * Selects the drawing button for given shape type.
+         *
+         * @param type the shape type to draw
+         */
+        public void set(ShapeType type) {
+            this.button = DRAW;
+            this.shapeType = type;
         }
 
         /**
@@ -85,12 +81,22 @@ public enum Buttons {
         }
 
         /**
-         * Returns the shape class associated with the selected button.
+         * Returns the shape type drawn by the selected button.
+         *
+         * @return the shape type, or null if no drawing button is selected
+         */
+        public ShapeType getShape() {
+            return this.shapeType;
+        }
+
+        /**
+         * Checks whether the selected button draws shapes of given class.
          *
-         * @return the Class object for the shape, or null if no button is selected or has no class
+         * @param shapeClass the shape class
+         * @return {@code true} if shapes of the class are drawn, otherwise {@code false}
          */
-        public Class<?> getShape() {
-            return this.button.cls;
+        public boolean draws(Class<?> shapeClass) {
+            return this.shapeType != null && this.shapeType.shapeClass() == shapeClass;
         }
     }
 }
@@ -1,4 +1,5 @@
 import javafx.scene.paint.Color;
+import javafx.scene.transform.Affine;
 
 /**
  * A custom {@link javafx.scene.shape.Circle} that supports dynamic transformations
@@ -13,7 +14,14 @@ import javafx.scene.paint.Color;
  *   <li>{@code Previewable} - for dynamically adjusting rectangle bounds based on user input.</li>
  * </ul>
  */
-public class Circle extends javafx.scene.shape.Circle implements Movable, Resizable, Previewable, Repr {
+public class Circle extends javafx.scene.shape.Circle implements Movable, Resizable, Previewable, Repr, Pickable {
+    /** The circle's whole transformation, the only element of its transforms list. */
+    private final Affine transform = new Affine();
+    /** Translation of the circle's center. */
+    private double x, y;
+    /** Scale factor of the circle, kept for drawings which stored one. */
+    private double scale = 1.0;
+
     /**
      * Constructs a new {@code Circle} with center at specified coordinates.
      * The initial radius is set to 0.
@@ -23,8 +31,8 @@ public class Circle extends javafx.scene.shape.Circle implements Movable, Resiza
      */
     public Circle(double x, double y) {
         super(0, 0, 0);
-        setTranslateX(x);
-        setTranslateY(y);
+        getTransforms().add(transform);
+        move(x, y);
     }
 
     /**
@@ -35,8 +43,40 @@ public class Circle extends javafx.scene.shape.Circle implements Movable, Resiza
      */
     @Override
     public void move(double x, double y) {
-        setTranslateX(x);
-        setTranslateY(y);
+        this.x = x;
+        this.y = y;
+        updateTransform();
+    }
+
+    /**
+     * Shifts the circle's center by the given offsets.
+     *
+     * @param dx the offset along the X axis
+     * @param dy the offset along the Y axis
+     */
+    @Override
+    public void translate(double dx, double dy) {
+        move(x + dx, y + dy);
+    }
+
+    /**
+     * Returns the X coordinate of the circle's center.
+     *
+     * @return the X translation
+     */
+    @Override
+    public double getPositionX() {
+        return x;
+    }
+
+    /**
+     * Returns the Y coordinate of the circle's center.
+     *
+     * @return the Y translation
+     */
+    @Override
+    public double getPositionY() {
+        return y;
     }
 
     /**
@@ -49,6 +89,26 @@ public class Circle extends javafx.scene.shape.Circle implements Movable, Resiza
         setRadius(getRadius() + amount * 0.1);
     }
 
+    /**
+     * Returns the circle's radius.
+     *
+     * @return the radius
+     */
+    @Override
+    public double getSize() {
+        return getRadius();
+    }
+
+    /**
+     * Sets the circle's radius.
+     *
+     * @param size the new radius
+     */
+    @Override
+    public void setSize(double size) {
+        setRadius(size);
+    }
+
     /**
      * Updates the circle's radius to preview a bounding box
      * from the origin to the given coordinates.
@@ -58,7 +118,22 @@ public class Circle extends javafx.scene.shape.Circle implements Movable, Resiza
      */
     @Override
     public void preview(double x, double y) {
-        setRadius(Utils.distance(getTranslateX(), getTranslateY(), x, y));
+        setRadius(Utils.distance(this.x, this.y, x, y));
+    }
+
+    /**
+     * Checks whether point (x,y) lies within the circle's radius.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return {@code true} if the point lies within the circle, otherwise {@code false}
+     */
+    @Override
+    public boolean hitTest(double x, double y) {
+        double dx = x - this.x;
+        double dy = y - this.y;
+        double r = getRadius() * scale;
+        return dx*dx + dy*dy <= r*r;
     }
 
     /**
@@ -70,27 +145,35 @@ public class Circle extends javafx.scene.shape.Circle implements Movable, Resiza
     public Utils.ShapeRepr createRepr() {
         Utils.ShapeRepr repr = new Utils.ShapeRepr();
         repr.shapeType = Circle.class;
-        repr.color = String.format( "#%02X%02X%02X",
-        (int)( ((Color) getFill()).getRed() * 255 ),
-        (int)( ((Color) getFill()).getGreen() * 255 ),
-        (int)( ((Color) getFill()).getBlue() * 255 ) );
-        repr.x = getTranslateX();
-        repr.y = getTranslateY();
+        repr.color = Utils.toRgba((Color) getFill());
+        repr.x = x;
+        repr.y = y;
         repr.angle = 0;
-        repr.scale = 1.0;
-        repr.args = new Double[]{getRadius()};
+        repr.scale = scale;
+        repr.args = new double[]{getRadius()};
 
         return repr;
     }
 
     /**
-     * Circle scpecific recreation step.
+     * Circle scpecific recreation step. Circles are never rotated, so the angle is ignored.
      * 
-     * @param args array of shape specific parameters
+     * @param angle the rotation angle in degrees
+     * @param scale the scale factor
+     * @param args  array of shape specific parameters
      */
     @Override
-    public void recreate(Double[] args) {
+    public void recreate(double angle, double scale, double[] args) {
+        this.scale = scale;
         setRadius(args[0]);
+        updateTransform();
+    }
+
+    /**
+     * Sets the circle's transformation from its translation and scale.
+     */
+    private void updateTransform() {
+        ShapeOps.setTransform(transform, x, y, 0, scale, 0, 0);
     }
 
 }
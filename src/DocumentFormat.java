@@ -0,0 +1,476 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javafx.scene.shape.Shape;
+
+/**
+ * Static class implementing the binary drawing file format.
+ *
+ * <p>All values are little-endian. A file consists of a header followed by one record per shape,
+ * interleaved with palette entries:</p>
+ * <ul>
+ *   <li>header - {@code int} magic {@code "KPL5"}, {@code short} version, {@code short} reserved, {@code int} shape count</li>
+ *   <li>palette entry - {@code byte} 0, {@code int} packed RGBA color; defines the color of the next palette slot</li>
+ *   <li>record - {@code byte} type tag, the {@link ShapeType#id()} of the shape, {@code short} palette slot of its color,
+ *       {@code double} x, y, angle and scale, {@code int} argument count followed by that many {@code double} shape specific arguments</li>
+ * </ul>
+ *
+ * <p>Every color is written once, in a palette entry preceding the first record using it, so
+ * drawings with few distinct colors store two bytes per shape instead of four. Palette slots are
+ * assigned in order and wrap around after {@value #PALETTE_SLOTS}, overwriting the oldest entry, which
+ * keeps the slot index within a {@code short} for any number of colors. Files of version 1 store the
+ * packed RGBA color in place of the palette slot and contain no palette entries.
+ * The edit {@link Journal} embeds version 1 records, which are self-contained.</p>
+ *
+ * <p>Files written by older versions of the application, which contain a serialized
+ * {@code Utils.ShapeRepr[]}, are recognized by the Java serialization stream magic and still readable.</p>
+ */
+public class DocumentFormat {
+    private DocumentFormat() {}
+
+    /** Magic number opening every file, the ASCII string {@code "KPL5"}. */
+    public static final int MAGIC = 0x354C504B;
+    /** Current version of the format. */
+    public static final short VERSION = 2;
+    /** Number of palette slots, after which slots are reused. */
+    public static final int PALETTE_SLOTS = 1 << 16;
+    /** Type tag of a palette entry, never used by a {@link ShapeType}. */
+    private static final byte PALETTE_TAG = 0;
+    /** Size of a palette entry in bytes. */
+    private static final int PALETTE_ENTRY_SIZE = 1 + 4;
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 12;
+    /** Size of the fixed part of a version 1 record, with an inline color, in bytes. */
+    private static final int RECORD_SIZE = 1 + 4 + 4*8 + 4;
+    /** Size of the fixed part of a record referring to a palette slot in bytes. */
+    private static final int INDEXED_RECORD_SIZE = 1 + 2 + 4*8 + 4;
+    /** Size of the buffer used for channel I/O. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** First two bytes of a Java serialization stream, used to detect legacy files. */
+    private static final short LEGACY_MAGIC = (short) 0xACED;
+
+    /**
+     * Writes all shape representations into a file.
+     *
+     * @param file   the file to write into
+     * @param shapes shape representations to write
+     * @throws IOException if writing fails
+     */
+    public static void write(File file, Utils.ShapeRepr[] shapes) throws IOException {
+        try (Writer writer = new Writer(file, shapes.length)) {
+            for (Utils.ShapeRepr shape : shapes) {
+                writer.write(shape);
+            }
+        }
+    }
+
+    /**
+     * Reads all shape representations from a file in either the binary or the legacy format.
+     *
+     * @param file the file to read from
+     * @return shape representations stored in the file
+     * @throws IOException if reading fails or the file is malformed
+     */
+    public static Utils.ShapeRepr[] read(File file) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            Utils.ShapeRepr[] shapes = new Utils.ShapeRepr[reader.count()];
+            for (int i = 0; i < shapes.length; i++) {
+                shapes[i] = reader.next();
+            }
+            return shapes;
+        }
+    }
+
+    /**
+     * Returns the number of bytes a shape representation occupies when encoded as a self-contained version 1 record.
+     *
+     * @param shape the shape representation
+     * @return size of the encoded record in bytes
+     */
+    static int recordSize(Utils.ShapeRepr shape) {
+        return RECORD_SIZE + 8*shape.args.length;
+    }
+
+    /**
+     * Encodes a complete self-contained version 1 record into a buffer with enough remaining space.
+     *
+     * @param buffer the buffer to encode into
+     * @param shape  the shape representation to encode
+     * @throws IOException if the shape type is not supported
+     */
+    static void encodeRecord(ByteBuffer buffer, Utils.ShapeRepr shape) throws IOException {
+        buffer.put(tagOf(shape.shapeType)).putInt(shape.color);
+        encodeFixed(buffer, shape);
+        buffer.asDoubleBuffer().put(shape.args);
+        buffer.position(buffer.position() + 8*shape.args.length);
+    }
+
+    /**
+     * Decodes a complete self-contained version 1 record from a buffer holding all of its bytes.
+     *
+     * @param buffer the buffer to decode from
+     * @return the decoded shape representation
+     * @throws IOException if the record is malformed
+     */
+    static Utils.ShapeRepr decodeRecord(ByteBuffer buffer) throws IOException {
+        Utils.ShapeRepr shape = new Utils.ShapeRepr();
+        shape.shapeType = classOf(buffer.get());
+        shape.color = buffer.getInt();
+        decodeFixed(buffer, shape);
+        buffer.asDoubleBuffer().get(shape.args);
+        buffer.position(buffer.position() + 8*shape.args.length);
+        return shape;
+    }
+
+    /**
+     * Encodes the fixed size part of a record following the type tag and color,
+     * up to and including the argument count.
+     *
+     * @param buffer the buffer to encode into
+     * @param shape  the shape representation to encode
+     */
+    private static void encodeFixed(ByteBuffer buffer, Utils.ShapeRepr shape) {
+        buffer.putDouble(shape.x)
+            .putDouble(shape.y)
+            .putDouble(shape.angle)
+            .putDouble(shape.scale)
+            .putInt(shape.args.length);
+    }
+
+    /**
+     * Decodes the fixed size part of a record following the type tag and color,
+     * and allocates the argument array.
+     *
+     * @param buffer the buffer to decode from
+     * @param shape  shape representation receiving the decoded values; arguments are not yet filled in
+     * @throws IOException if the record is malformed
+     */
+    private static void decodeFixed(ByteBuffer buffer, Utils.ShapeRepr shape) throws IOException {
+        shape.x = buffer.getDouble();
+        shape.y = buffer.getDouble();
+        shape.angle = buffer.getDouble();
+        shape.scale = buffer.getDouble();
+        int argc = buffer.getInt();
+        if (argc < 0) { throw new StreamCorruptedException("Negative argument count"); }
+        shape.args = new double[argc];
+    }
+
+    /**
+     * Grows a palette array to hold given slot, doubling its length up to {@link #PALETTE_SLOTS}.
+     *
+     * @param palette the palette array
+     * @param slot    the slot about to be written
+     * @return the palette array, or a larger copy of it
+     */
+    private static int[] growPalette(int[] palette, int slot) {
+        if (slot < palette.length) { return palette; }
+        return Arrays.copyOf(palette, Math.min(PALETTE_SLOTS, palette.length * 2));
+    }
+
+    /**
+     * Returns the type tag stored for given shape class.
+     *
+     * @param shapeType the shape class
+     * @return the type tag
+     * @throws IOException if the shape class is not a registered {@link ShapeType}
+     */
+    private static byte tagOf(Class<? extends Shape> shapeType) throws IOException {
+        ShapeType type = ShapeRegistry.byClass(shapeType);
+        if (type == null) { throw new IOException("Unsupported shape type: " + shapeType); }
+        return (byte) type.id();
+    }
+
+    /**
+     * Returns the shape class stored under given type tag.
+     *
+     * @param tag the type tag
+     * @return the shape class
+     * @throws IOException if no {@link ShapeType} is registered under the tag
+     */
+    private static Class<? extends Shape> classOf(byte tag) throws IOException {
+        ShapeType type = ShapeRegistry.byId(tag & 0xFF);
+        if (type == null) { throw new StreamCorruptedException("Unknown shape type tag: " + (tag & 0xFF)); }
+        return type.shapeClass();
+    }
+
+    /**
+     * Streaming writer of the binary format. Records are encoded into a direct buffer
+     * which is flushed to the file channel whenever it fills up.
+     */
+    public static class Writer implements Closeable {
+        /** Channel of the written file. */
+        private final FileChannel channel;
+        /** Buffer holding encoded, not yet written bytes. */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        /** Palette slots keyed by the color they hold. */
+        private final HashMap<Integer, Integer> slots = new HashMap<>();
+        /** Colors held by the palette slots defined so far, grown up to {@link #PALETTE_SLOTS}. */
+        private int[] palette = new int[16];
+        /** Number of palette entries written so far. */
+        private int paletteEntries = 0;
+
+        /**
+         * Opens a file for writing, truncating it, and writes the header.
+         *
+         * @param file  the file to write into
+         * @param count number of records that will be written
+         * @throws IOException if the file cannot be opened
+         */
+        public Writer(File file, int count) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(count);
+        }
+
+        /**
+         * Encodes a single shape representation.
+         *
+         * @param shape the shape representation to write
+         * @throws IOException if writing fails
+         */
+        public void write(Utils.ShapeRepr shape) throws IOException {
+            byte tag = tagOf(shape.shapeType);
+            int slot = slot(shape.color);
+            ensure(INDEXED_RECORD_SIZE);
+            buffer.put(tag).putShort((short) slot);
+            encodeFixed(buffer, shape);
+
+            int offset = 0;
+            while (offset < shape.args.length) {
+                ensure(8);
+                int n = Math.min(buffer.remaining() / 8, shape.args.length - offset);
+                buffer.asDoubleBuffer().put(shape.args, offset, n);
+                buffer.position(buffer.position() + n*8);
+                offset += n;
+            }
+        }
+
+        /**
+         * Returns the palette slot holding given color, writing a palette entry if it is not in the palette.
+         *
+         * @param color the packed RGBA color
+         * @return the palette slot
+         * @throws IOException if writing fails
+         */
+        private int slot(int color) throws IOException {
+            Integer slot = slots.get(color);
+            if (slot != null) { return slot; }
+
+            int next = paletteEntries++ % PALETTE_SLOTS;
+            // Once the slots wrap around, the oldest color is evicted from its slot
+            if (paletteEntries > PALETTE_SLOTS) { slots.remove(palette[next]); }
+            palette = growPalette(palette, next);
+            palette[next] = color;
+            slots.put(color, next);
+            ensure(PALETTE_ENTRY_SIZE);
+            buffer.put(PALETTE_TAG).putInt(color);
+            return next;
+        }
+
+        /**
+         * Flushes the buffer if fewer than given number of bytes are free.
+         *
+         * @param bytes number of bytes about to be put into the buffer
+         * @throws IOException if writing fails
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) { flush(); }
+        }
+
+        /**
+         * Writes all buffered bytes to the channel.
+         *
+         * @throws IOException if writing fails
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Flushes remaining bytes and closes the file.
+         *
+         * @throws IOException if writing fails
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Streaming reader of the binary format, falling back to the legacy serialized format.
+     */
+    public static class Reader implements Closeable {
+        /** Channel of the read file. */
+        private final FileChannel channel;
+        /** Buffer holding read, not yet decoded bytes. */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        /** Shapes of a legacy file, or {@code null} for binary files. */
+        private final Utils.ShapeRepr[] legacy;
+        /** Number of records in the file. */
+        private final int count;
+        /** Version of the binary format, or 0 for legacy files. */
+        private final short version;
+        /** Colors held by the palette slots read so far, grown up to {@link #PALETTE_SLOTS}. */
+        private int[] palette = new int[16];
+        /** Number of palette entries read so far. */
+        private int paletteEntries = 0;
+        /** Number of records read so far. */
+        private int read = 0;
+
+        /**
+         * Opens a file for reading and decodes its header.
+         *
+         * @param file the file to read from
+         * @throws IOException if the file cannot be opened or is malformed
+         */
+        public Reader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                buffer.limit(0);
+                ensure(2);
+                if (buffer.getShort(0) == Short.reverseBytes(LEGACY_MAGIC)) {
+                    legacy = readLegacy();
+                    count = legacy.length;
+                    version = 0;
+                } else {
+                    ensure(HEADER_SIZE);
+                    if (buffer.getInt() != MAGIC) { throw new StreamCorruptedException("Not a drawing file"); }
+                    version = buffer.getShort();
+                    if (version < 1 || version > VERSION) { throw new StreamCorruptedException("Unsupported format version: " + version); }
+                    buffer.getShort();
+                    legacy = null;
+                    count = buffer.getInt();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the number of records in the file.
+         *
+         * @return number of records
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Checks whether there are records left to read.
+         *
+         * @return {@code true} if there are records left, otherwise {@code false}
+         */
+        public boolean hasNext() {
+            return read < count;
+        }
+
+        /**
+         * Decodes the next shape representation.
+         *
+         * @return the next shape representation
+         * @throws IOException if reading fails or the record is malformed
+         */
+        public Utils.ShapeRepr next() throws IOException {
+            if (!hasNext()) { throw new EOFException(); }
+            if (legacy != null) { return legacy[read++]; }
+
+            Utils.ShapeRepr shape = new Utils.ShapeRepr();
+            if (version == 1) {
+                ensure(RECORD_SIZE);
+                shape.shapeType = classOf(buffer.get());
+                shape.color = buffer.getInt();
+            } else {
+                ensure(1);
+                while (buffer.get(buffer.position()) == PALETTE_TAG) {
+                    ensure(PALETTE_ENTRY_SIZE);
+                    buffer.get();
+                    int next = paletteEntries++ % PALETTE_SLOTS;
+                    palette = growPalette(palette, next);
+                    palette[next] = buffer.getInt();
+                    ensure(1);
+                }
+                ensure(INDEXED_RECORD_SIZE);
+                shape.shapeType = classOf(buffer.get());
+                int slot = buffer.getShort() & 0xFFFF;
+                if (slot >= Math.min(paletteEntries, PALETTE_SLOTS)) { throw new StreamCorruptedException("Undefined palette slot: " + slot); }
+                shape.color = palette[slot];
+            }
+            decodeFixed(buffer, shape);
+            int argc = shape.args.length;
+
+            int offset = 0;
+            while (offset < argc) {
+                ensure(8);
+                int n = Math.min(buffer.remaining() / 8, argc - offset);
+                buffer.asDoubleBuffer().get(shape.args, offset, n);
+                buffer.position(buffer.position() + n*8);
+                offset += n;
+            }
+            read++;
+            return shape;
+        }
+
+        /**
+         * Reads from the channel until at least given number of bytes are buffered.
+         *
+         * @param bytes number of bytes about to be taken from the buffer
+         * @throws IOException if reading fails or the file ends prematurely
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) { return; }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) { throw new EOFException(); }
+            }
+            buffer.flip();
+        }
+
+        /**
+         * Deserializes a legacy file holding a serialized {@code Utils.ShapeRepr[]}.
+         *
+         * @return deserialized shape representations
+         * @throws IOException if deserialization fails
+         */
+        private Utils.ShapeRepr[] readLegacy() throws IOException {
+            channel.position(0);
+            InputStream stream = Channels.newInputStream(channel);
+            try {
+                return (Utils.ShapeRepr[]) new ObjectInputStream(stream).readObject();
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Malformed legacy drawing file", e);
+            }
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException if closing fails
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
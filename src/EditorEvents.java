@@ -0,0 +1,197 @@
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for editor operations.
+ *
+ * <p>An event is created and begun before the operation, and its {@code finish} method
+ * fills in the attributes and commits it afterwards. While no recording enables an event,
+ * {@code begin()} returns immediately and {@code finish} stops at {@link Event#shouldCommit()},
+ * so the attributes are never computed and the short-lived event object is eliminated by
+ * escape analysis; instrumented code pays no more than a few inlined checks. Stack traces are
+ * only captured for the infrequent file operations.</p>
+ */
+public final class EditorEvents {
+    private EditorEvents() {}
+
+    /**
+     * Saving a drawing into a file.
+     */
+    @Name("lab5.Save")
+    @Label("Save")
+    @Category({"lab5", "File"})
+    @Description("A drawing written into a file")
+    public static class Save extends Event {
+        /** Path of the written file. */
+        @Label("File")
+        public String file;
+        /** Number of written shapes. */
+        @Label("Shapes")
+        public int shapes;
+        /** Size of the written file. */
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        /**
+         * Ends the event and commits it with given attributes if it is recorded.
+         *
+         * @param _file   the written file
+         * @param _shapes number of written shapes
+         */
+        public void finish(File _file, int _shapes) {
+            if (!shouldCommit()) { return; }
+            file = _file.getPath();
+            shapes = _shapes;
+            bytes = _file.length();
+            commit();
+        }
+    }
+
+    /**
+     * Loading a drawing from a file.
+     */
+    @Name("lab5.Load")
+    @Label("Load")
+    @Category({"lab5", "File"})
+    @Description("A drawing read from a file")
+    public static class Load extends Event {
+        /** Path of the read file. */
+        @Label("File")
+        public String file;
+        /** Number of read shapes. */
+        @Label("Shapes")
+        public int shapes;
+        /** Size of the read file. */
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        /**
+         * Ends the event and commits it with given attributes if it is recorded.
+         *
+         * @param _file   the read file
+         * @param _shapes number of read shapes
+         */
+        public void finish(File _file, int _shapes) {
+            if (!shouldCommit()) { return; }
+            file = _file.getPath();
+            shapes = _shapes;
+            bytes = _file.length();
+            commit();
+        }
+    }
+
+    /**
+     * Creating a shape node of a registered type.
+     */
+    @Name("lab5.ShapeCreated")
+    @Label("Shape Created")
+    @Category({"lab5", "Edit"})
+    @StackTrace(false)
+    public static class ShapeCreated extends Event {
+        /** Label of the shape type. */
+        @Label("Shape Type")
+        public String shapeType;
+
+        /**
+         * Ends the event and commits it with given attributes if it is recorded.
+         *
+         * @param _type the type of the created shape
+         */
+        public void finish(ShapeType _type) {
+            if (!shouldCommit()) { return; }
+            shapeType = _type.label();
+            commit();
+        }
+    }
+
+    /**
+     * Searching for the shape under the pointer to select it.
+     */
+    @Name("lab5.SelectionScan")
+    @Label("Selection Scan")
+    @Category({"lab5", "Edit"})
+    @StackTrace(false)
+    public static class SelectionScan extends Event {
+        /** Number of shapes examined by the scan. */
+        @Label("Examined")
+        public int examined;
+        /** Whether a shape was found. */
+        @Label("Hit")
+        public boolean hit;
+
+        /**
+         * Ends the event and commits it with given attributes if it is recorded.
+         *
+         * @param _examined number of shapes examined by the scan
+         * @param _hit      whether a shape was found
+         */
+        public void finish(int _examined, boolean _hit) {
+            if (!shouldCommit()) { return; }
+            examined = _examined;
+            hit = _hit;
+            commit();
+        }
+    }
+
+    /**
+     * Closing a polygon, which finishes drawing it.
+     */
+    @Name("lab5.PolygonClosed")
+    @Label("Polygon Closed")
+    @Category({"lab5", "Edit"})
+    @StackTrace(false)
+    public static class PolygonClosed extends Event {
+        /** Number of vertices of the closed polygon. */
+        @Label("Vertices")
+        public int vertices;
+
+        /**
+         * Ends the event and commits it with given attributes if it is recorded.
+         *
+         * @param _vertices number of vertices of the closed polygon
+         */
+        public void finish(int _vertices) {
+            if (!shouldCommit()) { return; }
+            vertices = _vertices;
+            commit();
+        }
+    }
+
+    /**
+     * Rotating, moving or resizing a shape.
+     */
+    @Name("lab5.Transform")
+    @Label("Transform")
+    @Category({"lab5", "Edit"})
+    @StackTrace(false)
+    public static class Transform extends Event {
+        /** The operation: {@code rotate}, {@code move} or {@code resize}. */
+        @Label("Operation")
+        public String operation;
+        /** Simple name of the transformed shape's class. */
+        @Label("Shape Type")
+        public String shapeType;
+
+        /**
+         * Ends the event and commits it with given attributes if it is recorded.
+         *
+         * @param _operation  the operation: {@code rotate}, {@code move} or {@code resize}
+         * @param _shapeClass class of the transformed shape
+         */
+        public void finish(String _operation, Class<?> _shapeClass) {
+            if (!shouldCommit()) { return; }
+            operation = _operation;
+            shapeType = _shapeClass.getSimpleName();
+            commit();
+        }
+    }
+}
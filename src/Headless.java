@@ -0,0 +1,157 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command-line entry point running batch tools without opening the GUI.
+ *
+ * <p>This is a separate main class rather than an option of {@link App}, because the Java
+ * launcher starts the JavaFX toolkit, and thus requires a display, before calling the main
+ * method of an {@code Application} subclass.</p>
+ *
+ * <pre>
+ * java Headless render [--threads N] [--thumbnail WIDTH] OUT_DIR FILE_OR_DIR...
+ * java Headless svg OUT_DIR FILE_OR_DIR...
+ * </pre>
+ */
+public class Headless {
+    private Headless() {}
+
+    /** Usage message printed for invalid arguments. */
+    private static final String USAGE = String.join(System.lineSeparator(),
+        "usage: Headless render [--threads N] [--thumbnail WIDTH] OUT_DIR FILE_OR_DIR...",
+        "       Headless svg OUT_DIR FILE_OR_DIR...");
+
+    /**
+     * The main entry point for the batch tools.
+     *
+     * @param args the tool name followed by its arguments
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs a batch tool.
+     *
+     * @param args the tool name followed by its arguments
+     * @return the process exit code
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0) { return usage(); }
+        try {
+            switch (args[0]) {
+                case "render" -> { return render(Arrays.copyOfRange(args, 1, args.length)); }
+                case "svg" -> { return svg(Arrays.copyOfRange(args, 1, args.length)); }
+                default -> { return usage(); }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            return usage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    /**
+     * Renders saved drawings to PNG images.
+     *
+     * @param args the options, output directory and input files
+     * @return the process exit code
+     * @throws InterruptedException if interrupted while rendering
+     */
+    private static int render(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int thumbnail = 0;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (i + 1 >= args.length) { return usage(); }
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[i+1]);
+                case "--thumbnail" -> thumbnail = Integer.parseInt(args[i+1]);
+                default -> { return usage(); }
+            }
+            i += 2;
+        }
+        if (args.length - i < 2 || threads < 1 || thumbnail < 0) { return usage(); }
+
+        File outDir = new File(args[i]);
+        List<File> files = inputs(Arrays.copyOfRange(args, i+1, args.length));
+        int failed = new BatchRenderer(outDir, threads, thumbnail).render(files, System.out);
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Exports saved drawings to SVG images. Every file is streamed record by record from
+     * the reader into the writer, once more after a first pass finding the area it covers,
+     * so memory use stays flat regardless of the drawing size.
+     *
+     * @param args the output directory and input files
+     * @return the process exit code
+     */
+    private static int svg(String[] args) {
+        if (args.length < 2) { return usage(); }
+        File outDir = new File(args[0]);
+        outDir.mkdirs();
+        int failed = 0;
+        long shapes = 0;
+        long start = System.nanoTime();
+        List<File> files = inputs(Arrays.copyOfRange(args, 1, args.length));
+        for (File file : files) {
+            long fileStart = System.nanoTime();
+            int count = 0;
+            File svg = new File(outDir, BatchRenderer.baseName(file) + ".svg");
+            try (DocumentFormat.Reader reader = new DocumentFormat.Reader(file);
+                 SvgWriter writer = new SvgWriter(svg, BatchRenderer.drawingBounds(file))) {
+                while (reader.hasNext()) {
+                    writer.write(reader.next());
+                    count++;
+                }
+                shapes += count;
+                System.out.printf("%s: %d shapes in %.1f ms%n", file, count, (System.nanoTime() - fileStart) / 1e6);
+            } catch (IOException | RuntimeException e) {
+                failed++;
+                System.out.printf("%s: failed after %.1f ms: %s%n", file, (System.nanoTime() - fileStart) / 1e6, e);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("exported %d of %d files, %d shapes in %.2f s: %.0f shapes/s%n",
+            files.size() - failed, files.size(), shapes, seconds, shapes / seconds);
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Expands the input arguments into files; directories contribute all regular files they contain.
+     *
+     * @param args paths of files and directories
+     * @return the input files
+     */
+    static List<File> inputs(String[] args) {
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            File file = new File(arg);
+            File[] children = file.listFiles(File::isFile);
+            if (children != null) {
+                Arrays.sort(children);
+                files.addAll(Arrays.asList(children));
+            } else {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Prints the usage message.
+     *
+     * @return the exit code for invalid arguments
+     */
+    private static int usage() {
+        System.err.println(USAGE);
+        return 2;
+    }
+}
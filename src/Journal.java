@@ -0,0 +1,799 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import javafx.scene.shape.Shape;
+
+/**
+ * An append-only journal of edit operations allowing to recover the drawing after a crash.
+ *
+ * <p>The journal is kept in a directory as generations, each consisting of a full snapshot
+ * {@code snapshot-N.kpl} in the {@link DocumentFormat} and a log {@code journal-N.log} of
+ * operations applied on top of it. Operations are encoded on the application thread in O(1)
+ * and written by a background thread, which syncs the file once per batch of queued records.
+ * After a number of operations the journal is compacted: a new generation is started from
+ * a snapshot of the drawing and the previous generation is deleted.</p>
+ *
+ * <p>Every log record is framed as {@code int} payload length, {@code int} CRC32 of the payload
+ * and the payload itself, being a {@code byte} operation, an {@code int} shape id and operation
+ * specific data. Recovery stops at the first torn or corrupted record.</p>
+ *
+ * <p>The drawing is divided into layers, identified by their index from the bottom. A log opens
+ * with the layers of its snapshot, whose shapes are stored layer by layer, and every created
+ * shape records its layer. Z-order changes move a shape within its own layer.</p>
+ */
+public class Journal {
+    /** Magic number opening every log, the ASCII string {@code "KPJ1"}. */
+    private static final int MAGIC = 0x314A504B;
+    /** Number of operations after which the journal is compacted. */
+    private static final int COMPACT_THRESHOLD = 50_000;
+    /** Size of the buffer used for channel I/O. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** All shapes were removed. */
+    private static final byte CLEAR = 0;
+    /** A shape was created; followed by its {@link DocumentFormat} record and {@code int} index of its layer, which older logs omit for the bottom layer. */
+    private static final byte CREATE = 1;
+    /** A point was added to a polygon; followed by {@code double} x, y. */
+    private static final byte POINT = 2;
+    /** A shape was moved; followed by {@code double} x, y. */
+    private static final byte MOVE = 3;
+    /** A shape was resized; followed by {@code double} amount. */
+    private static final byte RESIZE = 4;
+    /** A shape was rotated; followed by {@code double} x, y. */
+    private static final byte ROTATE = 5;
+    /** A shape was recolored; followed by {@code int} packed RGBA color. */
+    private static final byte RECOLOR = 6;
+    /** A shape was removed. */
+    private static final byte REMOVE = 7;
+    /** A shape was shifted; followed by {@code double} dx, dy. */
+    private static final byte TRANSLATE = 8;
+    /** A shape's size was set; followed by {@code double} size. */
+    private static final byte SIZE = 9;
+    /** A shape's rotation angle was set; followed by {@code double} angle. */
+    private static final byte ANGLE = 10;
+    /** A shape was moved above all others in its layer. */
+    private static final byte RAISE = 11;
+    /** A shape was moved below all others in its layer. */
+    private static final byte LOWER = 12;
+    /** A shape was moved directly above another in its layer; followed by {@code int} id of the other shape, or -1 to move it below all others in its layer. */
+    private static final byte RESTACK = 13;
+    /** A layer was added or its state changed, in place of the shape id its index; followed by {@code byte} visible and locked flags. */
+    private static final byte LAYER = 14;
+    /** The layers of the snapshot, opening every log; followed by {@code int} number of layers and for each of them, bottom to top, {@code int} number of its snapshot shapes and {@code byte} visible and locked flags. */
+    private static final byte LAYERS = 15;
+
+    /** Directory holding the journal files. */
+    private final File dir;
+    /** Supplier of all layers on the canvas, bottom to top, used for compaction. */
+    private final Supplier<List<Layer>> layers;
+    /** Ids of journaled shapes. */
+    private final IdentityHashMap<Shape, Integer> ids = new IdentityHashMap<>();
+    /** Id handed out to the next created shape. */
+    private int nextId = 0;
+    /** Number of operations journaled since the last compaction. */
+    private int sinceCompaction = 0;
+    /** Generation of the most recent snapshot. */
+    private int generation;
+    /** Items waiting to be written by the background thread. */
+    private final LinkedBlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    /** Background thread writing the journal. */
+    private final Thread writer = new Thread(this::run, "journal");
+    /** Whether the background thread gave up after an I/O failure. */
+    private volatile boolean failed = false;
+
+    /**
+     * Constructs a journal stored in given directory. No file is touched until
+     * {@link #recover()} and {@link #start(List)} are called.
+     *
+     * @param _dir    directory holding the journal files
+     * @param _layers supplier of all layers on the canvas, bottom to top
+     */
+    public Journal(File _dir, Supplier<List<Layer>> _layers) {
+        dir = _dir;
+        layers = _layers;
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Recreates the drawing from the most recent snapshot and the operations journaled after it.
+     * Snapshots and logs written before layers were journaled recover into a single layer.
+     *
+     * @return recovered layers, bottom to top, at least one
+     * @throws IOException if the snapshot cannot be read
+     */
+    public List<Layer> recover() throws IOException {
+        dir.mkdirs();
+        generation = 0;
+        String[] names = dir.list();
+        for (String name : names != null ? names : new String[0]) {
+            if (name.startsWith("snapshot-") && name.endsWith(".kpl")) {
+                try {
+                    generation = Math.max(generation, Integer.parseInt(name.substring(9, name.length()-4)));
+                } catch (NumberFormatException e) {
+                    // not a snapshot written by the journal
+                }
+            }
+        }
+
+        // The snapshot is recovered into the bottom layer until the log distributes it
+        List<RecoveredLayer> recovered = new ArrayList<>();
+        recovered.add(new RecoveredLayer());
+        File snapshot = snapshotFile(generation);
+        if (snapshot.exists()) {
+            Utils.ShapeRepr[] arr = DocumentFormat.read(snapshot);
+            for (int i = 0; i < arr.length; i++) {
+                recovered.get(0).shapes.put(i, arr[i].recreate());
+            }
+        }
+        File log = logFile(generation);
+        if (log.exists()) {
+            replay(log, recovered);
+        }
+        List<Layer> result = new ArrayList<>(recovered.size());
+        for (RecoveredLayer layer : recovered) {
+            result.add(new Layer(new ArrayList<>(layer.shapes.values()), layer.visible, layer.locked));
+        }
+        return result;
+    }
+
+    /**
+     * Starts journaling on top of given layers. A new generation is started
+     * from their snapshot, after which the recovered generation is deleted.
+     *
+     * @param initial layers already on the canvas, bottom to top
+     */
+    public void start(List<Layer> initial) {
+        for (Layer layer : initial) {
+            for (Shape shape : layer.shapes()) {
+                ids.put(shape, nextId++);
+            }
+        }
+        queue.add(compaction(initial));
+        writer.start();
+    }
+
+    /**
+     * Flushes all queued operations and stops the background thread.
+     */
+    public void close() {
+        queue.add(Item.CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Journals removal of all shapes.
+     */
+    public void cleared() {
+        ids.clear();
+        submit(frame(CLEAR, -1, 0));
+    }
+
+    /**
+     * Journals creation of a shape with its current state.
+     *
+     * @param shape the created shape
+     * @param layer index of the shape's layer, from the bottom
+     */
+    public void created(Shape shape, int layer) {
+        int id = nextId++;
+        ids.put(shape, id);
+        Utils.ShapeRepr repr = ((Repr) shape).createRepr();
+        try {
+            ByteBuffer buffer = frame(CREATE, id, DocumentFormat.recordSize(repr) + 4);
+            DocumentFormat.encodeRecord(buffer, repr);
+            buffer.putInt(layer);
+            submit(buffer);
+        } catch (IOException e) {
+            ids.remove(shape);
+            System.err.println("Shape not journaled: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Journals addition of a point to a polygon.
+     *
+     * @param shape the polygon
+     * @param x     the X coordinate of the point
+     * @param y     the Y coordinate of the point
+     */
+    public void pointAdded(Shape shape, double x, double y) {
+        journal(POINT, shape, x, y);
+    }
+
+    /**
+     * Journals a move of a shape.
+     *
+     * @param shape the moved shape
+     * @param x     the X coordinate passed to {@link Movable#move(double, double)}
+     * @param y     the Y coordinate passed to {@link Movable#move(double, double)}
+     */
+    public void moved(Shape shape, double x, double y) {
+        journal(MOVE, shape, x, y);
+    }
+
+    /**
+     * Journals a resize of a shape.
+     *
+     * @param shape  the resized shape
+     * @param amount the amount passed to {@link Resizable#resize(double)}
+     */
+    public void resized(Shape shape, double amount) {
+        journal(RESIZE, shape, amount);
+    }
+
+    /**
+     * Journals a shift of a shape.
+     *
+     * @param shape the shifted shape
+     * @param dx    the offset along the X axis
+     * @param dy    the offset along the Y axis
+     */
+    public void translated(Shape shape, double dx, double dy) {
+        journal(TRANSLATE, shape, dx, dy);
+    }
+
+    /**
+     * Journals a change of a shape's size.
+     *
+     * @param shape the resized shape
+     * @param size  the size passed to {@link Resizable#setSize(double)}
+     */
+    public void sized(Shape shape, double size) {
+        journal(SIZE, shape, size);
+    }
+
+    /**
+     * Journals a change of a shape's rotation angle.
+     *
+     * @param shape the rotated shape
+     * @param angle the angle passed to {@link Rotatable#setAngle(double)}
+     */
+    public void angled(Shape shape, double angle) {
+        journal(ANGLE, shape, angle);
+    }
+
+    /**
+     * Journals a rotation of a shape.
+     *
+     * @param shape the rotated shape
+     * @param x     the X coordinate passed to {@link Rotatable#rotate(double, double)}
+     * @param y     the Y coordinate passed to {@link Rotatable#rotate(double, double)}
+     */
+    public void rotated(Shape shape, double x, double y) {
+        journal(ROTATE, shape, x, y);
+    }
+
+    /**
+     * Journals a change of a shape's fill color.
+     *
+     * @param shape the recolored shape
+     * @param rgba  the new color packed by {@link Utils#toRgba(javafx.scene.paint.Color)}
+     */
+    public void recolored(Shape shape, int rgba) {
+        Integer id = ids.get(shape);
+        if (id == null) { return; }
+        ByteBuffer buffer = frame(RECOLOR, id, 4);
+        buffer.putInt(rgba);
+        submit(buffer);
+    }
+
+    /**
+     * Journals a move of a shape above all others in its layer.
+     *
+     * @param shape the raised shape
+     */
+    public void raised(Shape shape) {
+        Integer id = ids.get(shape);
+        if (id == null) { return; }
+        submit(frame(RAISE, id, 0));
+    }
+
+    /**
+     * Journals a move of a shape below all others in its layer.
+     *
+     * @param shape the lowered shape
+     */
+    public void lowered(Shape shape) {
+        Integer id = ids.get(shape);
+        if (id == null) { return; }
+        submit(frame(LOWER, id, 0));
+    }
+
+    /**
+     * Journals a move of a shape directly above another one in its layer.
+     *
+     * @param shape the moved shape
+     * @param below the shape directly below it, or {@code null} if it was moved below all others in its layer
+     */
+    public void restacked(Shape shape, Shape below) {
+        Integer id = ids.get(shape);
+        if (id == null) { return; }
+        Integer belowId = below == null ? null : ids.get(below);
+        ByteBuffer buffer = frame(RESTACK, id, 4);
+        buffer.putInt(belowId == null ? -1 : belowId);
+        submit(buffer);
+    }
+
+    /**
+     * Journals addition of a layer or a change of its state.
+     *
+     * @param index   index of the layer, from the bottom
+     * @param visible whether the layer is shown
+     * @param locked  whether the layer is locked
+     */
+    public void layerChanged(int index, boolean visible, boolean locked) {
+        ByteBuffer buffer = frame(LAYER, index, 2);
+        buffer.put((byte) (visible ? 1 : 0)).put((byte) (locked ? 1 : 0));
+        submit(buffer);
+    }
+
+    /**
+     * Journals removal of a shape. Shapes that were never journaled are ignored.
+     *
+     * @param shape the removed shape
+     */
+    public void removed(Shape shape) {
+        Integer id = ids.remove(shape);
+        if (id == null) { return; }
+        submit(frame(REMOVE, id, 0));
+    }
+
+    /**
+     * Journals an operation carrying a single value.
+     *
+     * @param op    the operation
+     * @param shape the affected shape
+     * @param value the value
+     */
+    private void journal(byte op, Shape shape, double value) {
+        Integer id = ids.get(shape);
+        if (id == null) { return; }
+        ByteBuffer buffer = frame(op, id, 8);
+        buffer.putDouble(value);
+        submit(buffer);
+    }
+
+    /**
+     * Journals an operation carrying a pair of coordinates.
+     *
+     * @param op    the operation
+     * @param shape the affected shape
+     * @param x     the X coordinate
+     * @param y     the Y coordinate
+     */
+    private void journal(byte op, Shape shape, double x, double y) {
+        Integer id = ids.get(shape);
+        if (id == null) { return; }
+        ByteBuffer buffer = frame(op, id, 16);
+        buffer.putDouble(x).putDouble(y);
+        submit(buffer);
+    }
+
+    /**
+     * Allocates a framed record and fills in its operation and shape id.
+     *
+     * @param op   the operation
+     * @param id   the affected shape id
+     * @param size size of the operation specific data in bytes
+     * @return buffer positioned at the operation specific data
+     */
+    private static ByteBuffer frame(byte op, int id, int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 5 + size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(5 + size).putInt(0).put(op).putInt(id);
+        return buffer;
+    }
+
+    /**
+     * Seals a framed record with the checksum of its payload and queues it for writing.
+     * Every {@value #COMPACT_THRESHOLD} records the journal is compacted.
+     *
+     * @param buffer the framed record
+     */
+    private void submit(ByteBuffer buffer) {
+        if (failed) { return; }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, buffer.capacity() - 8);
+        buffer.putInt(4, (int) crc.getValue());
+        queue.add(Item.record(buffer.array()));
+
+        if (++sinceCompaction >= COMPACT_THRESHOLD) {
+            queue.add(compaction(layers.get()));
+        }
+    }
+
+    /**
+     * Renumbers journaled shapes layer by layer and creates the compaction item holding their
+     * snapshot and the record of the layers opening the new log. Shapes that were not journaled
+     * yet, like shapes still being drawn, are skipped.
+     *
+     * @param all layers on the canvas, bottom to top
+     * @return the compaction item
+     */
+    private Item compaction(List<Layer> all) {
+        ArrayList<Utils.ShapeRepr> arr = new ArrayList<>();
+        IdentityHashMap<Shape, Integer> renumbered = new IdentityHashMap<>();
+        ByteBuffer header = frame(LAYERS, -1, 4 + 6*all.size());
+        header.putInt(all.size());
+        for (Layer layer : all) {
+            int count = arr.size();
+            for (Shape shape : layer.shapes()) {
+                if (ids.containsKey(shape)) {
+                    renumbered.put(shape, arr.size());
+                    arr.add(((Repr) shape).createRepr());
+                }
+            }
+            header.putInt(arr.size() - count);
+            header.put((byte) (layer.visible() ? 1 : 0)).put((byte) (layer.locked() ? 1 : 0));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 8, header.capacity() - 8);
+        header.putInt(4, (int) crc.getValue());
+
+        ids.clear();
+        ids.putAll(renumbered);
+        nextId = arr.size();
+        sinceCompaction = 0;
+        return Item.compaction(arr.toArray(new Utils.ShapeRepr[0]), header.array());
+    }
+
+    /**
+     * Body of the background thread. Writes queued records in batches, syncing the log
+     * once per batch, and performs compactions in queue order.
+     */
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        FileChannel log = null;
+        ArrayList<Item> items = new ArrayList<>();
+        try {
+            while (true) {
+                items.add(queue.take());
+                queue.drainTo(items);
+                for (Item item : items) {
+                    if (item.record != null && item.snapshot == null && log != null) {
+                        if (buffer.remaining() < item.record.length) { flush(buffer, log); }
+                        if (item.record.length > buffer.capacity()) {
+                            write(ByteBuffer.wrap(item.record), log);
+                        } else {
+                            buffer.put(item.record);
+                        }
+                    } else if (item.snapshot != null) {
+                        if (log != null) {
+                            flush(buffer, log);
+                            log.force(false);
+                            log.close();
+                        }
+                        log = rollOver(item.snapshot, item.record);
+                    } else if (item == Item.CLOSE) {
+                        if (log != null) {
+                            flush(buffer, log);
+                            log.force(false);
+                            log.close();
+                        }
+                        return;
+                    }
+                }
+                if (log != null) {
+                    flush(buffer, log);
+                    log.force(false);
+                }
+                items.clear();
+            }
+        } catch (IOException | InterruptedException e) {
+            failed = true;
+            System.err.println("Journal disabled: " + e);
+        }
+    }
+
+    /**
+     * Starts a new generation from given snapshot and deletes the previous generation.
+     * The new log, opening with the layers of the snapshot, is created first, and the snapshot
+     * is written under a temporary name and atomically renamed after it, so a crash at any point
+     * leaves a complete generation to recover from; generations are only found by their snapshots.
+     *
+     * @param snapshot representations of all journaled shapes, layer by layer
+     * @param layers   framed record of the layers of the snapshot
+     * @return channel of the new generation's log
+     * @throws IOException if writing fails
+     */
+    private FileChannel rollOver(Utils.ShapeRepr[] snapshot, byte[] layers) throws IOException {
+        int next = generation + 1;
+        FileChannel log = FileChannel.open(logFile(next).toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, MAGIC), log);
+        write(ByteBuffer.wrap(layers), log);
+        log.force(false);
+
+        File temp = new File(dir, "snapshot.tmp");
+        DocumentFormat.write(temp, snapshot);
+        Files.move(temp.toPath(), snapshotFile(next).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Files.deleteIfExists(snapshotFile(generation).toPath());
+        Files.deleteIfExists(logFile(generation).toPath());
+        generation = next;
+        return log;
+    }
+
+    /**
+     * Writes all buffered bytes to a channel.
+     *
+     * @param buffer the buffer in write mode
+     * @param log    the channel to write into
+     * @throws IOException if writing fails
+     */
+    private static void flush(ByteBuffer buffer, FileChannel log) throws IOException {
+        buffer.flip();
+        write(buffer, log);
+        buffer.clear();
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to a channel.
+     *
+     * @param buffer the buffer in read mode
+     * @param log    the channel to write into
+     * @throws IOException if writing fails
+     */
+    private static void write(ByteBuffer buffer, FileChannel log) throws IOException {
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+    }
+
+    /**
+     * Applies all intact records of a log to recovered shapes.
+     *
+     * @param log    the log file
+     * @param layers recovered layers, bottom to top
+     * @throws IOException if the log cannot be opened
+     */
+    private static void replay(File log, List<RecoveredLayer> layers) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log), BUFFER_SIZE))) {
+            if (Integer.reverseBytes(in.readInt()) != MAGIC) { return; }
+            long remaining = log.length() - 4;
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = Integer.reverseBytes(in.readInt());
+                int checksum = Integer.reverseBytes(in.readInt());
+                remaining -= 8 + (long) length;
+                if (length < 5 || remaining < 0) { return; }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) { return; }
+                apply(ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN), layers);
+            }
+        } catch (EOFException e) {
+            // the log ends here, possibly with a torn record
+        }
+    }
+
+    /**
+     * Applies a single operation to recovered layers.
+     *
+     * @param payload the record payload
+     * @param layers  recovered layers, bottom to top
+     * @throws IOException if the record is malformed
+     */
+    private static void apply(ByteBuffer payload, List<RecoveredLayer> layers) throws IOException {
+        byte op = payload.get();
+        int id = payload.getInt();
+        switch (op) {
+            case CLEAR -> {
+                for (RecoveredLayer layer : layers) {
+                    layer.shapes.clear();
+                }
+                return;
+            }
+            case CREATE -> {
+                Shape shape = DocumentFormat.decodeRecord(payload).recreate();
+                int index = payload.remaining() >= 4 ? payload.getInt() : 0;
+                layer(layers, index).shapes.put(id, shape);
+                return;
+            }
+            case LAYER -> {
+                RecoveredLayer layer = layer(layers, id);
+                layer.visible = payload.get() != 0;
+                layer.locked = payload.get() != 0;
+                return;
+            }
+            case LAYERS -> {
+                // The snapshot was recovered into the bottom layer; it is distributed in its order
+                List<Map.Entry<Integer, Shape>> snapshot = new ArrayList<>(layers.get(0).shapes.entrySet());
+                layers.clear();
+                int count = payload.getInt();
+                int next = 0;
+                for (int i = 0; i < count; i++) {
+                    RecoveredLayer layer = layer(layers, i);
+                    int end = Math.min(snapshot.size(), next + payload.getInt());
+                    for (; next < end; next++) {
+                        layer.shapes.put(snapshot.get(next).getKey(), snapshot.get(next).getValue());
+                    }
+                    layer.visible = payload.get() != 0;
+                    layer.locked = payload.get() != 0;
+                }
+                layer(layers, 0);
+                return;
+            }
+            default -> {}
+        }
+
+        RecoveredLayer layer = null;
+        for (RecoveredLayer candidate : layers) {
+            if (candidate.shapes.containsKey(id)) {
+                layer = candidate;
+                break;
+            }
+        }
+        if (layer == null) { return; }
+        LinkedHashMap<Integer, Shape> shapes = layer.shapes;
+        Shape shape = shapes.get(id);
+        switch (op) {
+            case POINT -> {
+                double x = payload.getDouble();
+                double y = payload.getDouble();
+                if (shape instanceof Polygon polygon) {
+                    polygon.preview(x, y);
+                    polygon.nextPoint(x, y);
+                }
+            }
+            case MOVE -> ((Movable) shape).move(payload.getDouble(), payload.getDouble());
+            case RESIZE -> ((Resizable) shape).resize(payload.getDouble());
+            case ROTATE -> ((Rotatable) shape).rotate(payload.getDouble(), payload.getDouble());
+            case RECOLOR -> shape.setFill(Utils.fromRgba(payload.getInt()));
+            case REMOVE -> shapes.remove(id);
+            case TRANSLATE -> ((Movable) shape).translate(payload.getDouble(), payload.getDouble());
+            case SIZE -> ((Resizable) shape).setSize(payload.getDouble());
+            case ANGLE -> ((Rotatable) shape).setAngle(payload.getDouble());
+            case RAISE -> {
+                shapes.remove(id);
+                shapes.put(id, shape);
+            }
+            case LOWER -> restack(shapes, id, -1);
+            case RESTACK -> restack(shapes, id, payload.getInt());
+            default -> {}
+        }
+    }
+
+    /**
+     * Returns a recovered layer, adding empty layers up to it if it does not exist yet.
+     *
+     * @param layers recovered layers, bottom to top
+     * @param index  index of the layer, from the bottom
+     * @return the layer
+     */
+    private static RecoveredLayer layer(List<RecoveredLayer> layers, int index) {
+        while (layers.size() <= index) {
+            layers.add(new RecoveredLayer());
+        }
+        return layers.get(index);
+    }
+
+    /**
+     * Moves a recovered shape directly after another one of its layer in the z-order, rebuilding the layer.
+     *
+     * @param shapes  recovered shapes of the layer keyed by id, bottom to top
+     * @param id      id of the moved shape
+     * @param belowId id of the shape to move it after, or -1 to move it to the bottom of the layer
+     */
+    private static void restack(LinkedHashMap<Integer, Shape> shapes, int id, int belowId) {
+        Shape shape = shapes.remove(id);
+        LinkedHashMap<Integer, Shape> restacked = new LinkedHashMap<>();
+        if (belowId == -1 || !shapes.containsKey(belowId)) { restacked.put(id, shape); }
+        for (Map.Entry<Integer, Shape> entry : shapes.entrySet()) {
+            restacked.put(entry.getKey(), entry.getValue());
+            if (entry.getKey() == belowId) { restacked.put(id, shape); }
+        }
+        shapes.clear();
+        shapes.putAll(restacked);
+    }
+
+    /**
+     * Returns the snapshot file of given generation.
+     *
+     * @param generation the generation
+     * @return the snapshot file
+     */
+    private File snapshotFile(int generation) {
+        return new File(dir, "snapshot-" + generation + ".kpl");
+    }
+
+    /**
+     * Returns the log file of given generation.
+     *
+     * @param generation the generation
+     * @return the log file
+     */
+    private File logFile(int generation) {
+        return new File(dir, "journal-" + generation + ".log");
+    }
+
+    /**
+     * A layer of the drawing as journaled: its shapes and its state.
+     *
+     * @param shapes  shapes of the layer, bottom to top
+     * @param visible whether the layer is shown
+     * @param locked  whether the layer is locked
+     */
+    public record Layer(List<Shape> shapes, boolean visible, boolean locked) {}
+
+    /**
+     * A layer being recovered, whose shapes are changed by replayed operations.
+     */
+    private static class RecoveredLayer {
+        /** Recovered shapes keyed by id, bottom to top. */
+        final LinkedHashMap<Integer, Shape> shapes = new LinkedHashMap<>();
+        /** Whether the layer is shown. */
+        boolean visible = true;
+        /** Whether the layer is locked. */
+        boolean locked = false;
+    }
+
+    /**
+     * An item queued for the background thread: a framed record, a snapshot to compact into
+     * together with the record of its layers, or the request to close the journal.
+     */
+    private static class Item {
+        /** Marker requesting the journal to be closed. */
+        static final Item CLOSE = new Item(null, null);
+        /** Framed record, the record of the snapshot's layers if a snapshot is held, or {@code null}. */
+        final byte[] record;
+        /** Snapshot starting a new generation, or {@code null}. */
+        final Utils.ShapeRepr[] snapshot;
+
+        /**
+         * Constructs an Item.
+         *
+         * @param _record   framed record, or {@code null}
+         * @param _snapshot snapshot starting a new generation, or {@code null}
+         */
+        private Item(byte[] _record, Utils.ShapeRepr[] _snapshot) {
+            record = _record;
+            snapshot = _snapshot;
+        }
+
+        /**
+         * Creates an item holding a framed record.
+         *
+         * @param record the framed record
+         * @return the item
+         */
+        static Item record(byte[] record) {
+            return new Item(record, null);
+        }
+
+        /**
+         * Creates an item holding a snapshot starting a new generation.
+         *
+         * @param snapshot representations of all journaled shapes, layer by layer
+         * @param layers   framed record of the layers of the snapshot
+         * @return the item
+         */
+        static Item compaction(Utils.ShapeRepr[] snapshot, byte[] layers) {
+            return new Item(layers, snapshot);
+        }
+    }
+}
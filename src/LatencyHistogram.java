@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size ring buffer of the most recent duration samples, summarized into percentiles on demand.
+ *
+ * <p>Recording a sample is a single array store, without allocation or locking, so the
+ * measured code is not slowed down noticeably. Once the buffer is full, each sample
+ * overwrites the oldest one, and percentiles always describe the latest samples only.
+ * The buffer is not thread-safe and is meant to be used from a single thread.</p>
+ */
+public class LatencyHistogram {
+    /** The recorded samples in nanoseconds, wrapping around. */
+    private final long[] samples;
+    /** Scratch buffer the samples are sorted in when computing percentiles. */
+    private final long[] sorted;
+    /** Index the next sample is stored at. */
+    private int next = 0;
+    /** Total number of recorded samples, including overwritten ones. */
+    private long count = 0;
+
+    /**
+     * Constructs an empty histogram.
+     *
+     * @param _capacity number of most recent samples kept
+     */
+    public LatencyHistogram(int _capacity) {
+        samples = new long[_capacity];
+        sorted = new long[_capacity];
+    }
+
+    /**
+     * Records a sample, overwriting the oldest one if the buffer is full.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        samples[next] = nanos;
+        next = next + 1 == samples.length ? 0 : next + 1;
+        count++;
+    }
+
+    /**
+     * Returns the total number of recorded samples, including those already overwritten.
+     *
+     * @return number of recorded samples
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Computes percentiles of the kept samples using the nearest-rank method.
+     *
+     * @param percentiles the requested percentiles, between 0 and 100
+     * @return the sample at each requested percentile in nanoseconds, or zeros if nothing was recorded
+     */
+    public long[] percentiles(double... percentiles) {
+        long[] result = new long[percentiles.length];
+        int n = (int) Math.min(count, samples.length);
+        if (n == 0) { return result; }
+        System.arraycopy(samples, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(percentiles[i] / 100 * n);
+            result[i] = sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+        }
+        return result;
+    }
+
+    /**
+     * Discards all samples.
+     */
+    public void clear() {
+        next = 0;
+        count = 0;
+    }
+}
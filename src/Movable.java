@@ -10,4 +10,26 @@ public interface Movable {
      * @param y the new Y coordinate (typically the center or anchor point)
      */
     void move(double x, double y);
+
+    /**
+     * Shifts the object by the given offsets.
+     *
+     * @param dx the offset along the X axis
+     * @param dy the offset along the Y axis
+     */
+    void translate(double dx, double dy);
+
+    /**
+     * Returns the X coordinate of the object's translation, which {@link #translate(double, double)} shifts.
+     *
+     * @return the X translation
+     */
+    double getPositionX();
+
+    /**
+     * Returns the Y coordinate of the object's translation, which {@link #translate(double, double)} shifts.
+     *
+     * @return the Y translation
+     */
+    double getPositionY();
 }
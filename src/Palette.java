@@ -0,0 +1,49 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Static table of interned fill colors.
+ *
+ * <p>Colors are keyed by their packed RGBA value, so all shapes filled with the same
+ * color share a single immutable {@link Color} instead of each holding its own copy,
+ * which keeps large, mostly monochrome drawings small on the heap. The table is safe
+ * to use from the background threads recreating loaded shapes.</p>
+ */
+public final class Palette {
+    private Palette() {}
+
+    /** Interned colors keyed by their packed RGBA value. */
+    private static final ConcurrentHashMap<Integer, Color> colors = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the shared color with given packed RGBA value.
+     *
+     * @param rgba packed RGBA value as created by {@link Utils#toRgba(Color)}
+     * @return the interned color
+     */
+    public static Color color(int rgba) {
+        Color color = colors.get(rgba);
+        if (color != null) { return color; }
+        return colors.computeIfAbsent(rgba, key -> Color.rgb(rgba >>> 24, (rgba >>> 16) & 0xFF, (rgba >>> 8) & 0xFF, (rgba & 0xFF) / 255.0));
+    }
+
+    /**
+     * Returns the shared color equal to given color after packing it to 8 bits per channel.
+     *
+     * @param color the color to intern
+     * @return the interned color
+     */
+    public static Color intern(Color color) {
+        return color(Utils.toRgba(color));
+    }
+
+    /**
+     * Returns the number of interned colors.
+     *
+     * @return number of interned colors
+     */
+    public static int size() {
+        return colors.size();
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * An interface for 2D shape objects that can be exactly hit tested against a point.
+ */
+public interface Pickable {
+
+    /**
+     * Checks whether point (x,y), given in the parent's coordinates, lies within the object's geometry.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return {@code true} if the point lies within the object, otherwise {@code false}
+     */
+    boolean hitTest(double x, double y);
+}
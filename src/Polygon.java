@@ -1,6 +1,5 @@
-import javafx.beans.property.DoubleProperty;
-import javafx.beans.property.SimpleDoubleProperty;
 import javafx.scene.paint.Color;
+import javafx.scene.transform.Affine;
 
 /**
  * A custom {@link javafx.scene.shape.Polygon} that supports dynamic transformations
@@ -14,11 +13,41 @@ import javafx.scene.paint.Color;
  *   <li>{@code Rotatable} - for applying rotation to the rectangle.</li>
  *   <li>{@code Previewable} - for dynamically adjusting rectangle bounds based on user input.</li>
  * </ul>
+ *
+ * <p>Its translation, rotation and scale are kept in plain fields and applied through
+ * a single {@link Affine}, updated once per change; the center of the vertex bounds the
+ * transformation is applied around is only recomputed when the vertices change, and the
+ * centroid the rotation handle is shown at is computed from the vertices only when asked for.</p>
  */
-public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resizable, Rotatable, Previewable, Repr {
+public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resizable, Rotatable, Previewable, Repr, Pickable {
+
+    /** The polygon's whole transformation, the only element of its transforms list. */
+    private final Affine transform = new Affine();
+    /** Translation of the polygon's local origin. */
+    private double x, y;
+    /** Rotation angle in degrees. */
+    private double angle = 0;
+    /** Scale factor. */
+    private double scale = 1.0;
+
+    /** Whether the cached centroid below reflects the current vertices. */
+    private boolean centroidValid = false;
+    /** Cached centroid of the vertices in local coordinates, where the rotation pivot lies. */
+    private double centroidX, centroidY;
+    /** Cached center of the local vertex bounds, which rotation and scale are applied around. */
+    private double centerX, centerY;
 
-    private final DoubleProperty rotationPivotX = new SimpleDoubleProperty();
-    private final DoubleProperty rotationPivotY = new SimpleDoubleProperty();
+    /**
+     * Vertices of the polygon in local coordinates. This is the authoritative geometry;
+     * the rendered {@link #getPoints()} list is only updated from it.
+     */
+    private final VertexBuffer vertices = new VertexBuffer(4);
+    /** Whether the cached transformed vertices below reflect the current geometry. */
+    private boolean geometryValid = false;
+    /** Cached vertices transformed into parent coordinates, stored as x,y pairs. */
+    private double[] transformedPoints = new double[0];
+    /** Cached axis-aligned bounds of the transformed vertices. */
+    private double minX, minY, maxX, maxY;
 
     /**
      * Constructs a new {@code Polygon} with doubled points at specified coordinates.
@@ -29,8 +58,13 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
      */
     public Polygon(double x, double y) {
         super(0.0, 0.0, 0.0, 0.0);
-        setTranslateX(x);
-        setTranslateY(y);
+        vertices.add(0, 0);
+        vertices.add(0, 0);
+        this.x = x;
+        this.y = y;
+        getTransforms().add(transform);
+        updateCenter();
+        updateTransform();
     }
 
     /**
@@ -41,8 +75,42 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
      */
     @Override
     public void move(double x, double y) {
-        setTranslateX(x);
-        setTranslateY(y);
+        this.x = x;
+        this.y = y;
+        updateTransform();
+    }
+
+    /**
+     * Shifts the polygon by the given offsets.
+     *
+     * @param dx the offset along the X axis
+     * @param dy the offset along the Y axis
+     */
+    @Override
+    public void translate(double dx, double dy) {
+        x += dx;
+        y += dy;
+        updateTransform();
+    }
+
+    /**
+     * Returns the X coordinate of the polygon's local origin.
+     *
+     * @return the X translation
+     */
+    @Override
+    public double getPositionX() {
+        return x;
+    }
+
+    /**
+     * Returns the Y coordinate of the polygon's local origin.
+     *
+     * @return the Y translation
+     */
+    @Override
+    public double getPositionY() {
+        return y;
     }
 
     /**
@@ -52,9 +120,29 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
      */
     @Override
     public void resize(double amount) {
-        double scale = amount > 0 ? 1.05 : 0.95;
-        setScaleX(this.getScaleX() * scale);
-        setScaleY(this.getScaleY() * scale);
+        scale *= amount > 0 ? 1.05 : 0.95;
+        updateTransform();
+    }
+
+    /**
+     * Returns the polygon's scale factor.
+     *
+     * @return the scale factor
+     */
+    @Override
+    public double getSize() {
+        return scale;
+    }
+
+    /**
+     * Sets the polygon's scale factor.
+     *
+     * @param size the new scale factor
+     */
+    @Override
+    public void setSize(double size) {
+        scale = size;
+        updateTransform();
     }
 
     /**
@@ -66,10 +154,32 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
     @Override
     public void rotate(double x, double y) {
         if (y < 0) {
-            this.setRotate(Math.toDegrees(-Math.atan(x/y)));
+            angle = Math.toDegrees(-Math.atan(x/y));
         } else {
-            this.setRotate(Math.toDegrees(-Math.atan(x/y)) + 180);
+            angle = Math.toDegrees(-Math.atan(x/y)) + 180;
         }
+        updateTransform();
+    }
+
+    /**
+     * Returns the polygon's rotation angle.
+     *
+     * @return the rotation angle in degrees
+     */
+    @Override
+    public double getAngle() {
+        return angle;
+    }
+
+    /**
+     * Sets the polygon's rotation angle.
+     *
+     * @param angle the rotation angle in degrees
+     */
+    @Override
+    public void setAngle(double angle) {
+        this.angle = angle;
+        updateTransform();
     }
 
     /**
@@ -81,8 +191,13 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
      */
     @Override
     public void preview(double x, double y) {
-        this.getPoints().set(this.getPoints().size()-2, x-getTranslateX());
-        this.getPoints().set(this.getPoints().size()-1, y-getTranslateY());
+        int last = vertices.size()-1;
+        vertices.set(last, x-this.x, y-this.y);
+        getPoints().set(2*last, vertices.x(last));
+        getPoints().set(2*last + 1, vertices.y(last));
+        centroidValid = false;
+        updateCenter();
+        updateTransform();
     }
 
     /**
@@ -93,51 +208,176 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
      * @return {@code true} if the point is near the starting point (within 10 units), {@code false} otherwise
      */
     public Polygon nextPoint(double x, double y) {
-        if (Utils.distance(x, y, getTranslateX(), getTranslateY()) < 10) {
-            getPoints().removeLast();
-            getPoints().removeLast();
-            updateCentroid();
+        centroidValid = false;
+        if (Utils.distance(x, y, this.x, this.y) < 10) {
+            EditorEvents.PolygonClosed event = new EditorEvents.PolygonClosed();
+            event.begin();
+            vertices.removeLast();
+            getPoints().remove(2*vertices.size(), getPoints().size());
+            updateCenter();
+            updateTransform();
+            event.finish(vertices.size());
             return null;
         } else {
+            vertices.add(x, y);
             getPoints().addAll(x, y);
+            updateCenter();
+            updateTransform();
             return this;
         }
     }
 
     /**
-     * Returns the property holding polygon's rotation pivot X coordinate.
+     * Returns the number of vertices.
+     *
+     * @return number of vertices
+     */
+    public int vertexCount() {
+        return vertices.size();
+    }
+
+    /**
+     * Returns the X coordinate of a vertex in local coordinates.
+     *
+     * @param i index of the vertex
+     * @return the X coordinate
+     */
+    public double vertexX(int i) {
+        return vertices.x(i);
+    }
+
+    /**
+     * Returns the Y coordinate of a vertex in local coordinates.
+     *
+     * @param i index of the vertex
+     * @return the Y coordinate
+     */
+    public double vertexY(int i) {
+        return vertices.y(i);
+    }
+
+    /**
+     * Passes every vertex, in local coordinates, to an action without allocating.
+     *
+     * @param action the action receiving the coordinates of each vertex
+     */
+    public void forEachVertex(VertexBuffer.VertexConsumer action) {
+        vertices.forEach(action);
+    }
+
+    /**
+     * Replaces the rendered points with the vertices in a single list change.
+     */
+    private void pushPoints() {
+        Double[] points = new Double[2*vertices.size()];
+        for (int i = 0; i < vertices.size(); i++) {
+            points[2*i] = vertices.x(i);
+            points[2*i + 1] = vertices.y(i);
+        }
+        getPoints().setAll(points);
+    }
+
+    /**
+     * Checks whether point (x,y) lies within the polygon, first against the bounds
+     * of the cached transformed vertices and then exactly using the non-zero winding rule.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return {@code true} if the point lies within the polygon, otherwise {@code false}
+     */
+    @Override
+    public boolean hitTest(double x, double y) {
+        if (!geometryValid) { updateGeometry(); }
+        if (x < minX || x > maxX || y < minY || y > maxY) { return false; }
+        return Utils.windingNumber(transformedPoints, x, y) != 0;
+    }
+
+    /**
+     * Recomputes the cached transformed vertices by applying the polygon's transformation.
+     */
+    private void updateGeometry() {
+        int n = 2*vertices.size();
+        if (transformedPoints.length != n) { transformedPoints = new double[n]; }
+        vertices.copyTo(transformedPoints, 0);
+
+        double mxx = transform.getMxx(), mxy = transform.getMxy(), tx = transform.getTx();
+        double myx = transform.getMyx(), myy = transform.getMyy(), ty = transform.getTy();
+        minX = minY = Double.POSITIVE_INFINITY;
+        maxX = maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i += 2) {
+            double lx = transformedPoints[i];
+            double ly = transformedPoints[i+1];
+            transformedPoints[i] = mxx*lx + mxy*ly + tx;
+            transformedPoints[i+1] = myx*lx + myy*ly + ty;
+            minX = Math.min(minX, transformedPoints[i]);
+            maxX = Math.max(maxX, transformedPoints[i]);
+            minY = Math.min(minY, transformedPoints[i+1]);
+            maxY = Math.max(maxY, transformedPoints[i+1]);
+        }
+        geometryValid = true;
+    }
+
+    /**
+     * Sets the polygon's transformation from its translation, rotation and scale, the latter two
+     * applied around the cached center of the local vertex bounds, and invalidates the cached vertices.
+     */
+    private void updateTransform() {
+        ShapeOps.setTransform(transform, x, y, angle, scale, centerX, centerY);
+        geometryValid = false;
+    }
+
+    /**
+     * Recomputes the cached center of the local vertex bounds after the vertices changed.
+     */
+    private void updateCenter() {
+        double localMinX = Double.POSITIVE_INFINITY, localMinY = Double.POSITIVE_INFINITY;
+        double localMaxX = Double.NEGATIVE_INFINITY, localMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < vertices.size(); i++) {
+            localMinX = Math.min(localMinX, vertices.x(i));
+            localMaxX = Math.max(localMaxX, vertices.x(i));
+            localMinY = Math.min(localMinY, vertices.y(i));
+            localMaxY = Math.max(localMaxY, vertices.y(i));
+        }
+        centerX = (localMinX + localMaxX) / 2;
+        centerY = (localMinY + localMaxY) / 2;
+    }
+
+    /**
+     * Returns the X coordinate of polygon's rotation pivot, the centroid of its vertices.
      * 
-     * @return polygon's rotationPivotX property
+     * @return the pivot X coordinate
      */
     @Override
-    public DoubleProperty rotationPivotXProperty() {
-        return rotationPivotX;
+    public double getRotationPivotX() {
+        if (!centroidValid) { updateCentroid(); }
+        return x + centroidX;
     }
 
     /**
-     * Returns the property holding polygon's rotation pivot Y coordinate.
+     * Returns the Y coordinate of polygon's rotation pivot, the centroid of its vertices.
      * 
-     * @return polygon's rotationPivotY property
+     * @return the pivot Y coordinate
      */
     @Override
-    public DoubleProperty rotationPivotYProperty() {
-        return rotationPivotY;
+    public double getRotationPivotY() {
+        if (!centroidValid) { updateCentroid(); }
+        return y + centroidY;
     }
 
     /**
-     * Updates the centroid (geometric center) of the shape based on its point list,
-     * and re-binds the rotation pivot properties to follow the shape's translation
-     * offset plus the calculated centroid.
+     * Recomputes the cached centroid (geometric center) of the shape based on its vertices.
      */
     private void updateCentroid() {
         double x = 0;
         double y = 0;
-        for (int i = 0; i < getPoints().size(); i += 2) {
-            x += getPoints().get(i);
-            y += getPoints().get(i+1);
+        int n = vertices.size();
+        for (int i = 0; i < n; i++) {
+            x += vertices.x(i);
+            y += vertices.y(i);
         }
-        rotationPivotX.bind(translateXProperty().add(x/getPoints().size()*2));
-        rotationPivotY.bind(translateYProperty().add(y/getPoints().size()*2));
+        centroidX = x/n;
+        centroidY = y/n;
+        centroidValid = true;
     }
 
     /**
@@ -149,17 +389,15 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
     public Utils.ShapeRepr createRepr() {
         Utils.ShapeRepr repr = new Utils.ShapeRepr();
         repr.shapeType = Polygon.class;
-        repr.color = ((Color) getFill()).toString();
-        repr.x = getTranslateX();
-        repr.y = getTranslateY();
-        repr.angle = getRotate();
-        repr.scale = getScaleX();
-        repr.args = new Double[getPoints().size()+2];
-        repr.args[0] = rotationPivotX.get() - translateXProperty().get();
-        repr.args[1] = rotationPivotY.get() - translateYProperty().get();
-        for (int i=2; i<repr.args.length; i++) {
-            repr.args[i] = getPoints().get(i-2);
-        }
+        repr.color = Utils.toRgba((Color) getFill());
+        repr.x = x;
+        repr.y = y;
+        repr.angle = angle;
+        repr.scale = scale;
+        repr.args = new double[2*vertices.size()+2];
+        repr.args[0] = getRotationPivotX() - x;
+        repr.args[1] = getRotationPivotY() - y;
+        vertices.copyTo(repr.args, 2);
 
         return repr;
     }
@@ -167,14 +405,22 @@ public class Polygon extends javafx.scene.shape.Polygon implements Movable, Resi
     /**
      * Polygon scpecific recreation step.
      * 
-     * @param args array of shape specific parameters
+     * @param angle the rotation angle in degrees
+     * @param scale the scale factor
+     * @param args  array of shape specific parameters
      */
     @Override
-    public void recreate(Double[] args) {
-        rotationPivotX.bind(translateXProperty().add(args[0]));
-        rotationPivotY.bind(translateYProperty().add(args[1]));
-        for (int i = 2; i < args.length; i++) {
-            getPoints().add(args[i]); 
-        }
+    public void recreate(double angle, double scale, double[] args) {
+        this.angle = angle;
+        this.scale = scale;
+        // The saved vertices replace the placeholder ones added by the constructor
+        vertices.clear();
+        vertices.addAll(args, 2, args.length);
+        pushPoints();
+        centroidX = args[0];
+        centroidY = args[1];
+        centroidValid = true;
+        updateCenter();
+        updateTransform();
     }
 }
@@ -1,6 +1,5 @@
-import javafx.beans.property.DoubleProperty;
-import javafx.beans.property.SimpleDoubleProperty;
 import javafx.scene.paint.Color;
+import javafx.scene.transform.Affine;
 
 /**
  * A custom {@link javafx.scene.shape.Rectangle} that supports dynamic transformations
@@ -10,6 +9,10 @@ import javafx.scene.paint.Color;
  * <p>The rectangle maintains an internal pivot point which serves as a reference
  * for operations such as previewing (e.g., drawing a rectangle dynamically on drag).</p>
  *
+ * <p>Its translation, rotation and scale are kept in plain fields and applied through
+ * a single {@link Affine}, updated once per change, instead of the node's own transform
+ * properties; the rotation pivot is derived from them only when asked for.</p>
+ *
  * <p>This class implements the following interfaces:</p>
  * <ul>
  *   <li>{@code Movable} - for repositioning the rectangle based on a center point.</li>
@@ -18,15 +21,30 @@ import javafx.scene.paint.Color;
  *   <li>{@code Previewable} - for dynamically adjusting rectangle bounds based on user input.</li>
  * </ul>
  */
-public class Rectangle extends javafx.scene.shape.Rectangle implements Movable, Resizable, Rotatable, Previewable, Repr {
+public class Rectangle extends javafx.scene.shape.Rectangle implements Movable, Resizable, Rotatable, Previewable, Repr, Pickable {
     /** The initial pivot X coordinate, used as a reference point for previewing. */
     private final double pivotX;
 
     /** The initial pivot Y coordinate, used as a reference point for previewing. */
     private final double pivotY;
 
-    private final DoubleProperty rotationPivotX = new SimpleDoubleProperty();
-    private final DoubleProperty rotationPivotY = new SimpleDoubleProperty();
+    /** The rectangle's whole transformation, the only element of its transforms list. */
+    private final Affine transform = new Affine();
+    /** Translation of the rectangle's top left corner, before rotation and scaling. */
+    private double x, y;
+    /** Rotation angle in degrees. */
+    private double angle = 0;
+    /** Scale factor. */
+    private double scale = 1.0;
+
+    /** Whether the cached oriented box below reflects the current geometry. */
+    private boolean geometryValid = false;
+    /** Cached center of the oriented box. */
+    private double boxCenterX, boxCenterY;
+    /** Cached half extents of the oriented box. */
+    private double boxHalfWidth, boxHalfHeight;
+    /** Cached cosine and sine of the rotation angle. */
+    private double boxCos, boxSin;
 
     /**
      * Constructs a new {@code Rectangle} with a pivot point at the specified coordinates.
@@ -39,10 +57,10 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
         super(0.0, 0.0, 0.0, 0.0);
         pivotX = x;
         pivotY = y;
-        setTranslateX(x);
-        setTranslateY(y);
-        rotationPivotX.bind(translateXProperty().add(widthProperty().divide(2)));
-        rotationPivotY.bind(translateYProperty().add(heightProperty().divide(2)));
+        this.x = x;
+        this.y = y;
+        getTransforms().add(transform);
+        updateTransform();
     }
 
     /**
@@ -53,8 +71,42 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
      */
     @Override
     public void move(double x, double y) {
-        setTranslateX(x - getWidth()/2);
-        setTranslateY(y - getHeight()/2);
+        this.x = x - getWidth()/2;
+        this.y = y - getHeight()/2;
+        updateTransform();
+    }
+
+    /**
+     * Shifts the rectangle by the given offsets.
+     *
+     * @param dx the offset along the X axis
+     * @param dy the offset along the Y axis
+     */
+    @Override
+    public void translate(double dx, double dy) {
+        x += dx;
+        y += dy;
+        updateTransform();
+    }
+
+    /**
+     * Returns the X coordinate of the rectangle's top left corner before rotation and scaling.
+     *
+     * @return the X translation
+     */
+    @Override
+    public double getPositionX() {
+        return x;
+    }
+
+    /**
+     * Returns the Y coordinate of the rectangle's top left corner before rotation and scaling.
+     *
+     * @return the Y translation
+     */
+    @Override
+    public double getPositionY() {
+        return y;
     }
 
     /**
@@ -65,9 +117,29 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
      */
     @Override
     public void resize(double amount) {
-        double scale = amount > 0 ? 1.06 : 0.98;
-        setScaleX(this.getScaleX() * scale);
-        setScaleY(this.getScaleY() * scale);
+        scale *= amount > 0 ? 1.06 : 0.98;
+        updateTransform();
+    }
+
+    /**
+     * Returns the rectangle's scale factor.
+     *
+     * @return the scale factor
+     */
+    @Override
+    public double getSize() {
+        return scale;
+    }
+
+    /**
+     * Sets the rectangle's scale factor.
+     *
+     * @param size the new scale factor
+     */
+    @Override
+    public void setSize(double size) {
+        scale = size;
+        updateTransform();
     }
 
     /**
@@ -78,7 +150,29 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
      */
     @Override
     public void rotate(double x, double y) {
-        setRotate(Math.toDegrees(-Math.atan(x/y)));
+        angle = Math.toDegrees(-Math.atan(x/y));
+        updateTransform();
+    }
+
+    /**
+     * Returns the rectangle's rotation angle.
+     *
+     * @return the rotation angle in degrees
+     */
+    @Override
+    public double getAngle() {
+        return angle;
+    }
+
+    /**
+     * Sets the rectangle's rotation angle.
+     *
+     * @param angle the rotation angle in degrees
+     */
+    @Override
+    public void setAngle(double angle) {
+        this.angle = angle;
+        updateTransform();
     }
 
     /**
@@ -90,30 +184,71 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
      */
     @Override
     public void preview(double x, double y) {
-        setTranslateX(Math.min(pivotX, x));
-        setTranslateY(Math.min(pivotY, y));
-        setWidth(Math.abs(x - Math.max(getTranslateX(), pivotX)));
-        setHeight(Math.abs(y - Math.max(getTranslateY(), pivotY)));
+        this.x = Math.min(pivotX, x);
+        this.y = Math.min(pivotY, y);
+        setWidth(Math.abs(x - Math.max(this.x, pivotX)));
+        setHeight(Math.abs(y - Math.max(this.y, pivotY)));
+        updateTransform();
     }
 
     /**
-     * Returns the property holding rectangle's rotation pivot X coordinate.
+     * Checks whether point (x,y) lies within the rotated and scaled rectangle
+     * by projecting it onto the axes of the cached oriented box.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return {@code true} if the point lies within the rectangle, otherwise {@code false}
+     */
+    @Override
+    public boolean hitTest(double x, double y) {
+        if (!geometryValid) { updateGeometry(); }
+        double dx = x - boxCenterX;
+        double dy = y - boxCenterY;
+        return Math.abs(dx*boxCos + dy*boxSin) <= boxHalfWidth
+            && Math.abs(dy*boxCos - dx*boxSin) <= boxHalfHeight;
+    }
+
+    /**
+     * Recomputes the cached oriented box from the rectangle's size and transformations.
+     */
+    private void updateGeometry() {
+        double radians = Math.toRadians(angle);
+        boxCenterX = getRotationPivotX();
+        boxCenterY = getRotationPivotY();
+        boxHalfWidth = Math.abs(getWidth()/2 * scale);
+        boxHalfHeight = Math.abs(getHeight()/2 * scale);
+        boxCos = Math.cos(radians);
+        boxSin = Math.sin(radians);
+        geometryValid = true;
+    }
+
+    /**
+     * Returns the X coordinate of rectangle's rotation pivot, its center.
      * 
-     * @return rectangle's rotationPivotX property
+     * @return the pivot X coordinate
      */
     @Override
-    public DoubleProperty rotationPivotXProperty() {
-        return rotationPivotX;
+    public double getRotationPivotX() {
+        return x + getWidth()/2;
     }
 
     /**
-     * Returns the property holding rectangle's rotation pivot Y coordinate.
+     * Returns the Y coordinate of rectangle's rotation pivot, its center.
      * 
-     * @return rectangle's rotationPivotY property
+     * @return the pivot Y coordinate
      */
     @Override
-    public DoubleProperty rotationPivotYProperty() {
-        return rotationPivotY;
+    public double getRotationPivotY() {
+        return y + getHeight()/2;
+    }
+
+    /**
+     * Sets the rectangle's transformation from its translation, rotation and scale,
+     * the latter two applied around its center, and invalidates the cached oriented box.
+     */
+    private void updateTransform() {
+        ShapeOps.setTransform(transform, x, y, angle, scale, getWidth()/2, getHeight()/2);
+        geometryValid = false;
     }
 
     /**
@@ -125,12 +260,12 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
     public Utils.ShapeRepr createRepr() {
         Utils.ShapeRepr repr = new Utils.ShapeRepr();
         repr.shapeType = Rectangle.class;
-        repr.color = ((Color) getFill()).toString();
-        repr.x = getTranslateX();
-        repr.y = getTranslateY();
-        repr.angle = getRotate();
-        repr.scale = getScaleX();
-        repr.args = new Double[]{getWidth(), getHeight()};
+        repr.color = Utils.toRgba((Color) getFill());
+        repr.x = x;
+        repr.y = y;
+        repr.angle = angle;
+        repr.scale = scale;
+        repr.args = new double[]{getWidth(), getHeight()};
 
         return repr;
     }
@@ -138,11 +273,16 @@ public class Rectangle extends javafx.scene.shape.Rectangle implements Movable,
     /**
      * Rectangle scpecific recreation step.
      * 
-     * @param args array of shape specific parameters
+     * @param angle the rotation angle in degrees
+     * @param scale the scale factor
+     * @param args  array of shape specific parameters
      */
     @Override
-    public void recreate(Double[] args) {
+    public void recreate(double angle, double scale, double[] args) {
+        this.angle = angle;
+        this.scale = scale;
         setWidth(args[0]);
         setHeight(args[1]);
+        updateTransform();
     }
 }
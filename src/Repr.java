@@ -10,9 +10,11 @@ public interface Repr {
     Utils.ShapeRepr createRepr();
 
     /**
-     * Object scpecific recreation step.
+     * Object scpecific recreation step, restoring its transformation and geometry at once.
      * 
-     * @param args array of object specific parameters
+     * @param angle the rotation angle in degrees
+     * @param scale the scale factor
+     * @param args  array of object specific parameters
      */
-    void recreate(Double[] args);
+    void recreate(double angle, double scale, double[] args);
 }
@@ -9,4 +9,18 @@ public interface Resizable {
      * @param amount the amount by which to resize; positive to increase, negative to decrease
      */
     void resize(double amount);
+
+    /**
+     * Returns the object's size, the quantity changed by {@link #resize(double)}.
+     *
+     * @return the current size
+     */
+    double getSize();
+
+    /**
+     * Sets the object's size, the quantity changed by {@link #resize(double)}.
+     *
+     * @param size the new size
+     */
+    void setSize(double size);
 }
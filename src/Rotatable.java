@@ -1,5 +1,3 @@
-import javafx.beans.property.DoubleProperty;
-
 /**
  * An interface for 2D shape objects that can be rotated.
  */
@@ -14,17 +12,33 @@ public interface Rotatable {
     void rotate(double x, double y);
 
     /**
-     * Returns the property holding X coordinate of object's rotation pivot.
+     * Returns the object's rotation angle.
+     *
+     * @return the rotation angle in degrees
+     */
+    double getAngle();
+
+    /**
+     * Sets the object's rotation angle.
+     *
+     * @param angle the rotation angle in degrees
+     */
+    void setAngle(double angle);
+
+    /**
+     * Returns the X coordinate of object's rotation pivot, where its rotation handle is shown.
+     * It is computed on demand from the object's current geometry.
      * 
-     * @return object's rotationPivotX field
+     * @return the pivot X coordinate in parent's coordinates
      */
-    DoubleProperty rotationPivotXProperty();
+    double getRotationPivotX();
 
     /**
-     * Returns the property holding Y coordinate of object's rotation pivot.
+     * Returns the Y coordinate of object's rotation pivot, where its rotation handle is shown.
+     * It is computed on demand from the object's current geometry.
      * 
-     * @return object's rotationPivotY field
+     * @return the pivot Y coordinate in parent's coordinates
      */
-    DoubleProperty rotationPivotYProperty();
+    double getRotationPivotY();
 
 }
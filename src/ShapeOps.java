@@ -0,0 +1,544 @@
+import java.util.Arrays;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Affine;
+
+/**
+ * Static class implementing shape behaviour on plain {@link Utils.ShapeRepr} data,
+ * used by the immediate-mode renderer instead of scene graph nodes.
+ *
+ * <p>Every operation mirrors the corresponding method of {@link Circle}, {@link Rectangle}
+ * and {@link Polygon}, so that both renderers edit and save drawings identically.
+ * Shape specific parameters are laid out as in {@link Repr#createRepr()}:</p>
+ * <ul>
+ *   <li>circle - {@code [radius]}</li>
+ *   <li>rectangle - {@code [width, height]}</li>
+ *   <li>polygon - {@code [pivotX, pivotY, x0, y0, x1, y1, ...]}, with the rotation pivot
+ *       and the vertices relative to the translation</li>
+ * </ul>
+ */
+public class ShapeOps {
+    private ShapeOps() {}
+
+    /**
+     * Geometry of shape representations for the spatial index. Shapes are indexed by their
+     * painted area, so that rectangle queries also find shapes whose outline reaches into
+     * the queried area; picking still tests the exact fill.
+     */
+    public static final SpatialIndex.Geometry<Utils.ShapeRepr> GEOMETRY = new SpatialIndex.Geometry<>() {
+        @Override
+        public Bounds bounds(Utils.ShapeRepr shape) {
+            return ShapeOps.paintBounds(shape);
+        }
+
+        @Override
+        public boolean hitTest(Utils.ShapeRepr shape, double x, double y) {
+            return ShapeOps.hitTest(shape, x, y);
+        }
+    };
+
+    /** Radius of the rotation handle. */
+    public static final double HANDLE_RADIUS = 20;
+    /** Stroke width of the rotation handle. */
+    public static final double HANDLE_WIDTH = 10;
+    /** Stroke width of the selected shape's outline. */
+    public static final double OUTLINE_WIDTH = 5;
+    /** Area exported for an empty drawing, matching the default size of the canvas. */
+    public static final Bounds EMPTY_DRAWING = new BoundingBox(0, 0, 1600, 900);
+
+    /**
+     * Creates a representation of a new shape at point (x,y), as its constructor would.
+     *
+     * @param type  the shape type
+     * @param x     origin x coordinate
+     * @param y     origin y coordinate
+     * @param color shape's fill color
+     * @return representation of the new shape
+     */
+    public static Utils.ShapeRepr create(Class<?> type, double x, double y, Color color) {
+        Utils.ShapeRepr repr = new Utils.ShapeRepr();
+        repr.color = Utils.toRgba(color);
+        repr.x = x;
+        repr.y = y;
+        repr.angle = 0;
+        repr.scale = 1.0;
+        if (type == Circle.class) {
+            repr.shapeType = Circle.class;
+            repr.args = new double[]{0};
+        } else if (type == Rectangle.class) {
+            repr.shapeType = Rectangle.class;
+            repr.args = new double[]{0, 0};
+        } else if (type == Polygon.class) {
+            repr.shapeType = Polygon.class;
+            repr.args = new double[]{0, 0, 0, 0, 0, 0};
+        } else {
+            throw new IllegalArgumentException("Unknown shape type: " + type);
+        }
+        return repr;
+    }
+
+    /**
+     * Checks whether shapes of given class are implemented on plain data.
+     *
+     * @param type the shape class
+     * @return {@code true} for the built-in shape types, otherwise {@code false}
+     */
+    public static boolean supports(Class<?> type) {
+        return type == Circle.class || type == Rectangle.class || type == Polygon.class;
+    }
+
+    /**
+     * Updates a shape that is being drawn to follow point (x,y).
+     *
+     * @param repr    the shape
+     * @param x       the X coordinate of the previewed point
+     * @param y       the Y coordinate of the previewed point
+     * @param originX the X coordinate the shape was started at
+     * @param originY the Y coordinate the shape was started at
+     */
+    public static void preview(Utils.ShapeRepr repr, double x, double y, double originX, double originY) {
+        if (repr.shapeType == Circle.class) {
+            repr.args[0] = Utils.distance(repr.x, repr.y, x, y);
+        } else if (repr.shapeType == Rectangle.class) {
+            repr.x = Math.min(originX, x);
+            repr.y = Math.min(originY, y);
+            repr.args[0] = Math.abs(x - Math.max(repr.x, originX));
+            repr.args[1] = Math.abs(y - Math.max(repr.y, originY));
+        } else {
+            repr.args[repr.args.length-2] = x - repr.x;
+            repr.args[repr.args.length-1] = y - repr.y;
+        }
+    }
+
+    /**
+     * Adds the next vertex to a polygon that is being drawn, or closes it if point (x,y)
+     * is within 10 units of its origin.
+     *
+     * @param repr the polygon
+     * @param x    the X coordinate of the point
+     * @param y    the Y coordinate of the point
+     * @return {@code true} if the polygon was closed, otherwise {@code false}
+     */
+    public static boolean nextPoint(Utils.ShapeRepr repr, double x, double y) {
+        if (Utils.distance(x, y, repr.x, repr.y) < 10) {
+            EditorEvents.PolygonClosed event = new EditorEvents.PolygonClosed();
+            event.begin();
+            repr.args = Arrays.copyOf(repr.args, repr.args.length-2);
+            double cx = 0;
+            double cy = 0;
+            for (int i = 2; i < repr.args.length; i += 2) {
+                cx += repr.args[i];
+                cy += repr.args[i+1];
+            }
+            int n = (repr.args.length-2) / 2;
+            repr.args[0] = cx / n;
+            repr.args[1] = cy / n;
+            event.finish(n);
+            return true;
+        }
+        repr.args = Arrays.copyOf(repr.args, repr.args.length+2);
+        repr.args[repr.args.length-2] = x - repr.x;
+        repr.args[repr.args.length-1] = y - repr.y;
+        return false;
+    }
+
+    /**
+     * Moves a shape so that its origin (circle, polygon) or center (rectangle) is at point (x,y).
+     *
+     * @param repr the shape
+     * @param x    the new X coordinate
+     * @param y    the new Y coordinate
+     */
+    public static void move(Utils.ShapeRepr repr, double x, double y) {
+        if (repr.shapeType == Rectangle.class) {
+            repr.x = x - repr.args[0]/2;
+            repr.y = y - repr.args[1]/2;
+        } else {
+            repr.x = x;
+            repr.y = y;
+        }
+    }
+
+    /**
+     * Resizes a shape by a step in the direction of given amount.
+     *
+     * @param repr   the shape
+     * @param amount positive to increase size, negative to decrease
+     */
+    public static void resize(Utils.ShapeRepr repr, double amount) {
+        if (repr.shapeType == Circle.class) {
+            repr.args[0] += amount * 0.1;
+        } else if (repr.shapeType == Rectangle.class) {
+            repr.scale *= amount > 0 ? 1.06 : 0.98;
+        } else {
+            repr.scale *= amount > 0 ? 1.05 : 0.95;
+        }
+    }
+
+    /**
+     * Checks whether a shape can be rotated.
+     *
+     * @param repr the shape
+     * @return {@code true} if the shape is rotatable, otherwise {@code false}
+     */
+    public static boolean isRotatable(Utils.ShapeRepr repr) {
+        return repr.shapeType != Circle.class;
+    }
+
+    /**
+     * Rotates a shape by calculating an angle based on point (x,y) relative to its rotation pivot.
+     *
+     * @param repr the shape
+     * @param x    the x coordinate relative to the pivot
+     * @param y    the y coordinate relative to the pivot
+     */
+    public static void rotate(Utils.ShapeRepr repr, double x, double y) {
+        if (repr.shapeType == Polygon.class && y >= 0) {
+            repr.angle = Math.toDegrees(-Math.atan(x/y)) + 180;
+        } else {
+            repr.angle = Math.toDegrees(-Math.atan(x/y));
+        }
+    }
+
+    /**
+     * Returns the X coordinate of a shape's rotation pivot, where its rotation handle is shown.
+     *
+     * @param repr the shape
+     * @return the pivot X coordinate
+     */
+    public static double pivotX(Utils.ShapeRepr repr) {
+        return repr.x + (repr.shapeType == Rectangle.class ? repr.args[0]/2 : repr.args[0]);
+    }
+
+    /**
+     * Returns the Y coordinate of a shape's rotation pivot, where its rotation handle is shown.
+     *
+     * @param repr the shape
+     * @return the pivot Y coordinate
+     */
+    public static double pivotY(Utils.ShapeRepr repr) {
+        return repr.y + (repr.shapeType == Rectangle.class ? repr.args[1]/2 : repr.args[1]);
+    }
+
+    /**
+     * Checks whether point (x,y) lies on the rotation handle of a shape.
+     *
+     * @param repr the shape
+     * @param x    the X coordinate of the point
+     * @param y    the Y coordinate of the point
+     * @return {@code true} if the point lies on the handle, otherwise {@code false}
+     */
+    public static boolean hitsHandle(Utils.ShapeRepr repr, double x, double y) {
+        // Like the unfilled handle node, only its stroke is pickable
+        double distance = Utils.distance(pivotX(repr), pivotY(repr), x, y);
+        return Math.abs(distance - HANDLE_RADIUS) <= HANDLE_WIDTH/2;
+    }
+
+    /**
+     * Returns the axis-aligned bounds of a shape's fill in canvas coordinates.
+     *
+     * @param repr the shape
+     * @return bounds of the shape
+     */
+    public static Bounds bounds(Utils.ShapeRepr repr) {
+        if (repr.shapeType == Circle.class) {
+            double r = Math.abs(repr.args[0] * repr.scale);
+            return new BoundingBox(repr.x - r, repr.y - r, 2*r, 2*r);
+        }
+        if (repr.shapeType == Rectangle.class) {
+            double angle = Math.toRadians(repr.angle);
+            double cos = Math.abs(Math.cos(angle));
+            double sin = Math.abs(Math.sin(angle));
+            double hw = Math.abs(repr.args[0]/2 * repr.scale);
+            double hh = Math.abs(repr.args[1]/2 * repr.scale);
+            double ex = hw*cos + hh*sin;
+            double ey = hw*sin + hh*cos;
+            return new BoundingBox(repr.x + repr.args[0]/2 - ex, repr.y + repr.args[1]/2 - ey, 2*ex, 2*ey);
+        }
+        double[] points = transformedPoints(repr);
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            maxX = Math.max(maxX, points[i]);
+            minY = Math.min(minY, points[i+1]);
+            maxY = Math.max(maxY, points[i+1]);
+        }
+        return new BoundingBox(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Returns the axis-aligned bounds of all pixels a shape may paint, including its selection
+     * outline and a pixel of antialiasing.
+     *
+     * @param repr the shape
+     * @return painted bounds of the shape
+     */
+    public static Bounds paintBounds(Utils.ShapeRepr repr) {
+        Bounds bounds = bounds(repr);
+        double margin = OUTLINE_WIDTH/2 * Math.abs(repr.scale) + 1;
+        return new BoundingBox(bounds.getMinX() - margin, bounds.getMinY() - margin,
+            bounds.getWidth() + 2*margin, bounds.getHeight() + 2*margin);
+    }
+
+    /**
+     * Extends bounds to cover all pixels a shape may paint. Shape types without a plain data
+     * implementation are left out, as they cannot be drawn from their representation.
+     *
+     * @param bounds the bounds to extend, or {@code null} if nothing is covered yet
+     * @param repr   the shape
+     * @return the extended bounds, or {@code null} if nothing is covered yet
+     */
+    public static Bounds union(Bounds bounds, Utils.ShapeRepr repr) {
+        if (!supports(repr.shapeType)) { return bounds; }
+        Bounds painted = paintBounds(repr);
+        if (bounds == null) { return painted; }
+        double minX = Math.min(bounds.getMinX(), painted.getMinX());
+        double minY = Math.min(bounds.getMinY(), painted.getMinY());
+        return new BoundingBox(minX, minY, Math.max(bounds.getMaxX(), painted.getMaxX()) - minX,
+            Math.max(bounds.getMaxY(), painted.getMaxY()) - minY);
+    }
+
+    /**
+     * Returns the area painted by a drawing, which has no fixed extent on the unbounded canvas.
+     *
+     * @param shapes the shapes of the drawing
+     * @return bounds of all pixels the shapes may paint, or {@link #EMPTY_DRAWING} if they paint none
+     */
+    public static Bounds drawingBounds(Utils.ShapeRepr[] shapes) {
+        Bounds bounds = null;
+        for (Utils.ShapeRepr shape : shapes) {
+            bounds = union(bounds, shape);
+        }
+        return bounds == null ? EMPTY_DRAWING : bounds;
+    }
+
+    /**
+     * Returns the axis-aligned bounds of all pixels the rotation handle of a shape may paint.
+     *
+     * @param repr the shape
+     * @return painted bounds of the handle
+     */
+    public static Bounds handleBounds(Utils.ShapeRepr repr) {
+        double extent = HANDLE_RADIUS + HANDLE_WIDTH/2 + 1;
+        return new BoundingBox(pivotX(repr) - extent, pivotY(repr) - extent, 2*extent, 2*extent);
+    }
+
+    /**
+     * Checks whether point (x,y) lies within the exact geometry of a shape's fill.
+     *
+     * @param repr the shape
+     * @param x    the X coordinate of the point
+     * @param y    the Y coordinate of the point
+     * @return {@code true} if the point lies within the shape, otherwise {@code false}
+     */
+    public static boolean hitTest(Utils.ShapeRepr repr, double x, double y) {
+        if (repr.shapeType == Circle.class) {
+            return Utils.distance(repr.x, repr.y, x, y) <= Math.abs(repr.args[0] * repr.scale);
+        }
+        if (repr.shapeType == Rectangle.class) {
+            double angle = Math.toRadians(repr.angle);
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            double dx = x - repr.x - repr.args[0]/2;
+            double dy = y - repr.y - repr.args[1]/2;
+            return Math.abs(dx*cos + dy*sin) <= Math.abs(repr.args[0]/2 * repr.scale)
+                && Math.abs(dy*cos - dx*sin) <= Math.abs(repr.args[1]/2 * repr.scale);
+        }
+        return Utils.windingNumber(transformedPoints(repr), x, y) != 0;
+    }
+
+    /**
+     * Draws a shape, outlining it if it is selected.
+     *
+     * @param gc       the graphics context to draw with
+     * @param repr     the shape
+     * @param selected whether the shape is selected
+     */
+    public static void draw(GraphicsContext gc, Utils.ShapeRepr repr, boolean selected) {
+        gc.save();
+        gc.setFill(Utils.fromRgba(repr.color));
+        double[] m = transform(repr);
+        gc.transform(m[0], m[1], m[2], m[3], m[4], m[5]);
+        gc.beginPath();
+        if (repr.shapeType == Circle.class) {
+            double r = repr.args[0];
+            gc.arc(0, 0, r, r, 0, 360);
+            gc.closePath();
+        } else if (repr.shapeType == Rectangle.class) {
+            gc.rect(0, 0, repr.args[0], repr.args[1]);
+        } else {
+            double[] args = repr.args;
+            gc.moveTo(args[2], args[3]);
+            for (int i = 4; i < args.length; i += 2) {
+                gc.lineTo(args[i], args[i+1]);
+            }
+            gc.closePath();
+        }
+        gc.fill();
+        if (selected) {
+            gc.setStroke(Color.RED);
+            gc.setLineWidth(OUTLINE_WIDTH);
+            gc.stroke();
+        }
+        gc.restore();
+    }
+
+    /**
+     * Computes the transformation from a shape's local geometry to canvas coordinates:
+     * the scale and rotation around the center of its local bounds, followed by the translation,
+     * as applied to the {@link Circle}, {@link Rectangle} and {@link Polygon} nodes.
+     * The local geometry is a circle of the given radius around the origin, a rectangle
+     * spanning from the origin to its width and height, or the polygon's vertices.
+     *
+     * @param repr the shape
+     * @return the affine matrix as {mxx, myx, mxy, myy, mxt, myt}
+     */
+    public static double[] transform(Utils.ShapeRepr repr) {
+        double[] center = center(repr);
+        double cx = center[0];
+        double cy = center[1];
+        double angle = Math.toRadians(repr.angle);
+        double cos = Math.cos(angle) * repr.scale;
+        double sin = Math.sin(angle) * repr.scale;
+        return new double[]{
+            cos, sin, -sin, cos,
+            repr.x + cx - (cos*cx - sin*cy),
+            repr.y + cy - (sin*cx + cos*cy)
+        };
+    }
+
+    /**
+     * Sets a shape node's transformation to the one {@link #transform(Utils.ShapeRepr)} computes,
+     * replacing all its elements in a single change.
+     *
+     * @param affine the transformation to set
+     * @param x      the X translation
+     * @param y      the Y translation
+     * @param angle  the rotation angle in degrees
+     * @param scale  the scale factor
+     * @param cx     the X coordinate of the local point rotated and scaled around
+     * @param cy     the Y coordinate of the local point rotated and scaled around
+     */
+    public static void setTransform(Affine affine, double x, double y, double angle, double scale, double cx, double cy) {
+        double radians = Math.toRadians(angle);
+        double cos = Math.cos(radians) * scale;
+        double sin = Math.sin(radians) * scale;
+        affine.setToTransform(
+            cos, -sin, x + cx - (cos*cx - sin*cy),
+            sin, cos, y + cy - (sin*cx + cos*cy)
+        );
+    }
+
+    /**
+     * Returns the point a shape is rotated and scaled around, in its untransformed local
+     * coordinates: the origin of a circle, the middle of a rectangle and the center of
+     * a polygon's vertex bounds.
+     *
+     * @param repr the shape
+     * @return the center as an {x, y} pair relative to the translation
+     */
+    public static double[] center(Utils.ShapeRepr repr) {
+        if (repr.shapeType == Circle.class) { return new double[]{0, 0}; }
+        if (repr.shapeType == Rectangle.class) { return new double[]{repr.args[0]/2, repr.args[1]/2}; }
+        return localCenter(repr);
+    }
+
+    /**
+     * Returns the points other shapes snap to while being drawn: the vertices of a shape,
+     * the midpoints of its edges and its center, in canvas coordinates. Circles only offer their center.
+     *
+     * @param repr the shape
+     * @return the snap points stored as x,y pairs
+     */
+    public static double[] snapPoints(Utils.ShapeRepr repr) {
+        double[] vertices;
+        if (repr.shapeType == Circle.class) {
+            vertices = new double[0];
+        } else if (repr.shapeType == Rectangle.class) {
+            double w = repr.args[0];
+            double h = repr.args[1];
+            vertices = new double[]{0, 0, w, 0, w, h, 0, h};
+        } else {
+            vertices = Arrays.copyOfRange(repr.args, 2, repr.args.length & ~1);
+        }
+
+        // Vertices, then the midpoint of each edge of the closed outline, then the center
+        int n = vertices.length;
+        double[] local = new double[2*n + 2];
+        System.arraycopy(vertices, 0, local, 0, n);
+        for (int i = 0; i < n; i += 2) {
+            int next = (i + 2) % n;
+            local[n + i] = (vertices[i] + vertices[next]) / 2;
+            local[n + i+1] = (vertices[i+1] + vertices[next+1]) / 2;
+        }
+        double[] center = center(repr);
+        local[2*n] = center[0];
+        local[2*n + 1] = center[1];
+
+        double[] m = transform(repr);
+        double[] points = new double[local.length];
+        for (int i = 0; i < local.length; i += 2) {
+            points[i] = m[0]*local[i] + m[2]*local[i+1] + m[4];
+            points[i+1] = m[1]*local[i] + m[3]*local[i+1] + m[5];
+        }
+        return points;
+    }
+
+    /**
+     * Draws the rotation handle of a shape.
+     *
+     * @param gc   the graphics context to draw with
+     * @param repr the shape
+     */
+    public static void drawHandle(GraphicsContext gc, Utils.ShapeRepr repr) {
+        gc.setStroke(Color.BLUE);
+        gc.setLineWidth(HANDLE_WIDTH);
+        gc.strokeOval(pivotX(repr) - HANDLE_RADIUS, pivotY(repr) - HANDLE_RADIUS, 2*HANDLE_RADIUS, 2*HANDLE_RADIUS);
+    }
+
+    /**
+     * Returns the center of a polygon's untransformed vertex bounds, around which it is rotated and scaled.
+     *
+     * @param repr the polygon
+     * @return the center as an {x, y} pair relative to the translation
+     */
+    private static double[] localCenter(Utils.ShapeRepr repr) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 2; i < repr.args.length; i += 2) {
+            minX = Math.min(minX, repr.args[i]);
+            maxX = Math.max(maxX, repr.args[i]);
+            minY = Math.min(minY, repr.args[i+1]);
+            maxY = Math.max(maxY, repr.args[i+1]);
+        }
+        return new double[]{(minX + maxX) / 2, (minY + maxY) / 2};
+    }
+
+    /**
+     * Transforms a polygon's vertices into canvas coordinates, applying the scale and rotation
+     * around the center of their bounds, followed by the translation.
+     *
+     * @param repr the polygon
+     * @return transformed vertices stored as x,y pairs
+     */
+    private static double[] transformedPoints(Utils.ShapeRepr repr) {
+        double[] center = localCenter(repr);
+        double angle = Math.toRadians(repr.angle);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double ox = repr.x + center[0];
+        double oy = repr.y + center[1];
+        double[] points = new double[repr.args.length-2];
+        for (int i = 0; i < points.length; i += 2) {
+            double dx = (repr.args[i+2] - center[0]) * repr.scale;
+            double dy = (repr.args[i+3] - center[1]) * repr.scale;
+            points[i] = ox + dx*cos - dy*sin;
+            points[i+1] = oy + dx*sin + dy*cos;
+        }
+        return points;
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Shape;
+
+/**
+ * Static registry of all shape types, mapping stable type identifiers and shape classes
+ * to pre-bound factories.
+ *
+ * <p>The built-in types are always registered; further types are discovered once
+ * through {@link ServiceLoader}. Creating a shape is a single map lookup followed by
+ * a direct constructor call, without any reflection.</p>
+ */
+public class ShapeRegistry {
+    private ShapeRegistry() {}
+
+    /** The built-in circle type. */
+    public static final ShapeType CIRCLE = define(1, "circle", Circle.class, Circle::new);
+    /** The built-in rectangle type. */
+    public static final ShapeType RECTANGLE = define(2, "rect", Rectangle.class, Rectangle::new);
+    /** The built-in polygon type. */
+    public static final ShapeType POLYGON = define(3, "poly", Polygon.class, Polygon::new);
+
+    /** All registered types, in registration order. */
+    private static final List<ShapeType> types = new ArrayList<>();
+    /** Registered types keyed by their identifier. */
+    private static final ShapeType[] byId = new ShapeType[256];
+    /** Registered types keyed by the class of their shapes. */
+    private static final HashMap<Class<?>, ShapeType> byClass = new HashMap<>();
+
+    static {
+        register(CIRCLE);
+        register(RECTANGLE);
+        register(POLYGON);
+        try {
+            for (ShapeType type : ServiceLoader.load(ShapeType.class)) {
+                register(type);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Shape type plugins not loaded: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Defines a shape type from its parts.
+     *
+     * @param id         the stable type identifier
+     * @param label      the button label
+     * @param shapeClass the class of the created shapes
+     * @param factory    constructor creating a shape at given origin
+     * @return the shape type
+     */
+    public static ShapeType define(int id, String label, Class<? extends Shape> shapeClass, Factory factory) {
+        return new ShapeType() {
+            @Override
+            public int id() {
+                return id;
+            }
+
+            @Override
+            public String label() {
+                return label;
+            }
+
+            @Override
+            public Class<? extends Shape> shapeClass() {
+                return shapeClass;
+            }
+
+            @Override
+            public Shape create(double x, double y) {
+                return factory.create(x, y);
+            }
+        };
+    }
+
+    /**
+     * Returns all registered types.
+     *
+     * @return unmodifiable list of types, in registration order
+     */
+    public static List<ShapeType> types() {
+        return Collections.unmodifiableList(types);
+    }
+
+    /**
+     * Returns the type with given identifier.
+     *
+     * @param id the type identifier
+     * @return the type, or {@code null} if no type has that identifier
+     */
+    public static ShapeType byId(int id) {
+        return id >= 0 && id < byId.length ? byId[id] : null;
+    }
+
+    /**
+     * Returns the type creating shapes of given class.
+     *
+     * @param shapeClass the shape class
+     * @return the type, or {@code null} if the class is not registered
+     */
+    public static ShapeType byClass(Class<?> shapeClass) {
+        return byClass.get(shapeClass);
+    }
+
+    /**
+     * Creates a shape of given type at point (x,y), filled with the color interned in the {@link Palette}.
+     * No stroke width is set, so unselected shapes do not allocate their own stroke properties.
+     *
+     * @param type  the shape type
+     * @param x     origin x coordinate
+     * @param y     origin y coordinate
+     * @param color shape's fill color
+     * @return the new shape
+     */
+    public static Shape create(ShapeType type, double x, double y, Color color) {
+        EditorEvents.ShapeCreated event = new EditorEvents.ShapeCreated();
+        event.begin();
+        Shape shape = type.create(x, y);
+        shape.setFill(Palette.intern(color));
+        event.finish(type);
+        return shape;
+    }
+
+    /**
+     * Registers a type, unless its identifier or class is invalid or already taken.
+     *
+     * @param type the type to register
+     */
+    private static void register(ShapeType type) {
+        int id = type.id();
+        if (id < 1 || id >= byId.length) {
+            System.err.println("Shape type " + type.label() + " ignored: invalid id " + id);
+            return;
+        }
+        if (byId[id] != null || byClass.containsKey(type.shapeClass())) {
+            System.err.println("Shape type " + type.label() + " ignored: id " + id + " or its class is already registered");
+            return;
+        }
+        types.add(type);
+        byId[id] = type;
+        byClass.put(type.shapeClass(), type);
+    }
+
+    /**
+     * A constructor creating a shape at given origin.
+     */
+    public interface Factory {
+
+        /**
+         * Creates a new shape with its origin at point (x,y).
+         *
+         * @param x origin x coordinate
+         * @param y origin y coordinate
+         * @return the new shape
+         */
+        Shape create(double x, double y);
+    }
+}
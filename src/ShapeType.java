@@ -0,0 +1,42 @@
+import javafx.scene.shape.Shape;
+
+/**
+ * A type of shape that can be drawn, saved and loaded.
+ *
+ * <p>Additional shape types are provided as services: an implementation is listed
+ * in a {@code META-INF/services/ShapeType} file on the class path and discovered
+ * by {@link ShapeRegistry} at startup.</p>
+ */
+public interface ShapeType {
+
+    /**
+     * Returns the stable identifier of the type, stored in saved drawings.
+     * Must be within 1 and 255 and never change once drawings were saved with it.
+     *
+     * @return the type identifier
+     */
+    int id();
+
+    /**
+     * Returns the label of the button drawing shapes of this type.
+     *
+     * @return the button label
+     */
+    String label();
+
+    /**
+     * Returns the class of the shapes created by this type.
+     *
+     * @return the shape class
+     */
+    Class<? extends Shape> shapeClass();
+
+    /**
+     * Creates a new shape with its origin at point (x,y).
+     *
+     * @param x origin x coordinate
+     * @param y origin y coordinate
+     * @return the new shape
+     */
+    Shape create(double x, double y);
+}
@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A uniform grid index over the snap points of shapes: their vertices, edge midpoints and centers.
+ *
+ * <p>Every point is registered in the single grid cell containing it, so a nearest point query
+ * only examines the few cells within the snap radius, independently of the number of points
+ * in the whole drawing. The points of a shape are replaced as a whole whenever it changes.</p>
+ *
+ * @param <T> the type of the shapes owning the points
+ */
+public class SnapIndex<T> {
+    /** Maximum number of cells a single query examines; wider queries find nothing. */
+    private static final int MAX_CELLS = 256;
+
+    /** Side length of a single grid cell. */
+    private final double cellSize;
+    /** Grid cells keyed by packed cell coordinates. */
+    private final HashMap<Long, ArrayList<Point>> cells = new HashMap<>();
+    /** Points keyed by the shape owning them. */
+    private final HashMap<T, Point[]> points = new HashMap<>();
+    /** Total number of indexed points. */
+    private int size = 0;
+
+    /**
+     * Constructs an empty index with given cell size.
+     *
+     * @param _cellSize side length of a single grid cell
+     */
+    public SnapIndex(double _cellSize) {
+        cellSize = _cellSize;
+    }
+
+    /**
+     * Sets the snap points of a shape, replacing any points it had before.
+     *
+     * @param shape  the shape owning the points
+     * @param coords the points stored as x,y pairs
+     */
+    public void put(T shape, double[] coords) {
+        remove(shape);
+        Point[] owned = new Point[coords.length / 2];
+        for (int i = 0; i < owned.length; i++) {
+            Point point = new Point(coords[2*i], coords[2*i+1]);
+            owned[i] = point;
+            point.cell = cells.computeIfAbsent(key(cell(point.x), cell(point.y)), k -> new ArrayList<>());
+            point.slot = point.cell.size();
+            point.cell.add(point);
+        }
+        points.put(shape, owned);
+        size += owned.length;
+    }
+
+    /**
+     * Removes the snap points of a shape. Shapes without points are ignored. Every point is
+     * replaced by the last point of its cell, so removal costs the same regardless of how
+     * many points share the cell.
+     *
+     * @param shape the shape owning the points
+     */
+    public void remove(T shape) {
+        Point[] owned = points.remove(shape);
+        if (owned == null) { return; }
+        for (Point point : owned) {
+            ArrayList<Point> cell = point.cell;
+            Point last = cell.remove(cell.size()-1);
+            if (last != point) {
+                cell.set(point.slot, last);
+                last.slot = point.slot;
+            }
+            if (cell.isEmpty()) { cells.remove(key(cell(point.x), cell(point.y))); }
+        }
+        size -= owned.length;
+    }
+
+    /**
+     * Removes all points from the index.
+     */
+    public void clear() {
+        cells.clear();
+        points.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of indexed points.
+     *
+     * @return number of indexed points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the point nearest to (x,y) within given radius. Queries whose radius spans more than
+     * {@value #MAX_CELLS} cells find nothing, as points are then too dense to snap to meaningfully.
+     *
+     * @param x      the X coordinate of the queried point
+     * @param y      the Y coordinate of the queried point
+     * @param radius the maximum distance of the found point
+     * @param out    array receiving the found point as an {x, y} pair
+     * @return {@code true} if a point was found, otherwise {@code false}
+     */
+    public boolean nearest(double x, double y, double radius, double[] out) {
+        int cx0 = cell(x - radius), cx1 = cell(x + radius);
+        int cy0 = cell(y - radius), cy1 = cell(y + radius);
+        if ((long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1) > MAX_CELLS) { return false; }
+
+        double best = radius * radius;
+        boolean found = false;
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                ArrayList<Point> cell = cells.get(key(cx, cy));
+                if (cell == null) { continue; }
+                for (Point point : cell) {
+                    double dx = point.x - x;
+                    double dy = point.y - y;
+                    double distance = dx*dx + dy*dy;
+                    if (distance <= best) {
+                        best = distance;
+                        out[0] = point.x;
+                        out[1] = point.y;
+                        found = true;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the cell coordinate containing given position.
+     *
+     * @param v the position along one axis
+     * @return the cell coordinate along that axis
+     */
+    private int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    /**
+     * Packs two cell coordinates into a single map key.
+     *
+     * @param cx the cell X coordinate
+     * @param cy the cell Y coordinate
+     * @return packed key
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A single snap point, which knows its place in its cell.
+     */
+    private static class Point {
+        /** Coordinates of the point. */
+        final double x, y;
+        /** The cell holding the point. */
+        ArrayList<Point> cell;
+        /** Position of the point in its cell. */
+        int slot;
+
+        /**
+         * Constructs a point.
+         *
+         * @param _x the X coordinate
+         * @param _y the Y coordinate
+         */
+        Point(double _x, double _y) {
+            x = _x;
+            y = _y;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.shape.Shape;
+
+/**
+ * A uniform grid spatial index over the bounds of shapes placed on the canvas.
+ *
+ * <p>Every shape is registered in each grid cell its bounds overlap, together with
+ * a z-order stamp. A point query therefore only examines the shapes sharing the cell
+ * under the point instead of walking the whole scene graph. The z-order is also kept as
+ * a doubly linked list of the entries, and stamps are handed out with gaps between them,
+ * so moving a shape to the top, to the bottom or directly above another shape, and finding
+ * its neighbour, take constant time; stamps are only renumbered once a gap runs out.</p>
+ *
+ * @param <T> the type of the indexed shapes
+ */
+public class SpatialIndex<T> {
+    /** Geometry of shape nodes, using their bounds in parent and {@link Pickable} hit tests. */
+    public static final Geometry<Shape> NODES = new Geometry<>() {
+        @Override
+        public Bounds bounds(Shape shape) {
+            return shape.getBoundsInParent();
+        }
+
+        @Override
+        public boolean hitTest(Shape shape, double x, double y) {
+            return !(shape instanceof Pickable pickable) || pickable.hitTest(x, y);
+        }
+    };
+
+    /** Geometry of the indexed shapes. */
+    private final Geometry<T> geometry;
+    /** Side length of a single grid cell. */
+    private final double cellSize;
+    /** Grid cells keyed by packed cell coordinates. */
+    private final HashMap<Long, ArrayList<Entry<T>>> cells = new HashMap<>();
+    /** Index entries keyed by the indexed shape. */
+    private final HashMap<T, Entry<T>> entries = new HashMap<>();
+    /** Distance between the z-order stamps of neighbouring shapes moved to the top or bottom. */
+    private static final long GAP = 1 << 16;
+
+    /** Entry of the bottom shape in the z-order, or {@code null} if the index is empty. */
+    private Entry<T> bottom = null;
+    /** Entry of the top shape in the z-order, or {@code null} if the index is empty. */
+    private Entry<T> top = null;
+    /** Stamp of the most recent rectangle query, marking entries already reported by it. */
+    private int queryStamp = 0;
+    /** Number of entries examined by the most recent point query. */
+    private int examined = 0;
+    /** Reusable buffer collecting the entries found by a rectangle query. */
+    private final ArrayList<Entry<T>> found = new ArrayList<>();
+
+    /**
+     * Constructs an empty index with given cell size.
+     *
+     * @param _cellSize side length of a single grid cell
+     * @param _geometry geometry of the indexed shapes
+     */
+    public SpatialIndex(double _cellSize, Geometry<T> _geometry) {
+        cellSize = _cellSize;
+        geometry = _geometry;
+    }
+
+    /**
+     * Inserts a shape on top of all previously inserted shapes.
+     *
+     * @param shape the shape to insert
+     */
+    public void insert(T shape) {
+        Entry<T> entry = new Entry<>(shape);
+        link(entry, top);
+        entries.put(shape, entry);
+        place(entry);
+    }
+
+    /**
+     * Refreshes the bounds of an already indexed shape, keeping its z-order.
+     * Shapes that are not indexed are ignored.
+     *
+     * @param shape the shape whose bounds have changed
+     */
+    public void update(T shape) {
+        Entry<T> entry = entries.get(shape);
+        if (entry == null) { return; }
+        unplace(entry);
+        place(entry);
+    }
+
+    /**
+     * Removes a shape from the index.
+     *
+     * @param shape the shape to remove
+     */
+    public void remove(T shape) {
+        Entry<T> entry = entries.remove(shape);
+        if (entry == null) { return; }
+        unplace(entry);
+        unlink(entry);
+    }
+
+    /**
+     * Removes all shapes from the index.
+     */
+    public void clear() {
+        cells.clear();
+        entries.clear();
+        bottom = null;
+        top = null;
+    }
+
+    /**
+     * Returns the number of indexed shapes.
+     *
+     * @return number of indexed shapes
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns whether a shape is indexed.
+     *
+     * @param shape the shape
+     * @return {@code true} if the shape is indexed, otherwise {@code false}
+     */
+    public boolean contains(T shape) {
+        return entries.containsKey(shape);
+    }
+
+    /**
+     * Returns the bounds of an indexed shape as of its last insertion or update,
+     * which stay available after the shape itself has changed.
+     *
+     * @param shape the shape
+     * @return indexed bounds of the shape, or {@code null} if it is not indexed
+     */
+    public Bounds bounds(T shape) {
+        Entry<T> entry = entries.get(shape);
+        if (entry == null) { return null; }
+        return new BoundingBox(entry.minX, entry.minY, entry.maxX - entry.minX, entry.maxY - entry.minY);
+    }
+
+    /**
+     * Moves an indexed shape above all other shapes.
+     *
+     * @param shape the shape to raise
+     */
+    public void raise(T shape) {
+        Entry<T> entry = entries.get(shape);
+        unlink(entry);
+        link(entry, top);
+    }
+
+    /**
+     * Moves an indexed shape below all other shapes.
+     *
+     * @param shape the shape to lower
+     */
+    public void lower(T shape) {
+        Entry<T> entry = entries.get(shape);
+        unlink(entry);
+        link(entry, null);
+    }
+
+    /**
+     * Moves an indexed shape directly above another one.
+     *
+     * @param shape the shape to move
+     * @param below the indexed shape to place it above, or {@code null} to move it below all other shapes
+     */
+    public void placeAbove(T shape, T below) {
+        Entry<T> entry = entries.get(shape);
+        unlink(entry);
+        link(entry, below == null ? null : entries.get(below));
+    }
+
+    /**
+     * Returns the z-order stamp of an indexed shape; higher stamps are on top. Stamps
+     * only compare shapes, and may change whenever a shape is moved in the z-order.
+     *
+     * @param shape the shape
+     * @return the z-order stamp
+     */
+    public long z(T shape) {
+        return entries.get(shape).z;
+    }
+
+    /**
+     * Finds the shape directly below an indexed shape in the z-order.
+     *
+     * @param shape the shape
+     * @return the shape directly below, or {@code null} if the shape is at the bottom
+     */
+    public T below(T shape) {
+        Entry<T> below = entries.get(shape).below;
+        return below == null ? null : below.shape;
+    }
+
+    /**
+     * Finds the shape directly above an indexed shape in the z-order.
+     *
+     * @param shape the shape
+     * @return the shape directly above, or {@code null} if the shape is at the top
+     */
+    public T above(T shape) {
+        Entry<T> above = entries.get(shape).above;
+        return above == null ? null : above.shape;
+    }
+
+    /**
+     * Returns all indexed shapes.
+     *
+     * @param out list receiving the shapes, bottom to top
+     */
+    public void all(List<T> out) {
+        for (Entry<T> entry = bottom; entry != null; entry = entry.above) {
+            out.add(entry.shape);
+        }
+    }
+
+    /**
+     * Finds the topmost shape under point (x,y). Candidates are first filtered by their
+     * cached bounds, then tested against their exact geometry.
+     *
+     * @param x the X coordinate of the point
+     * @param y the Y coordinate of the point
+     * @return the topmost shape under the point, or {@code null} if there is none
+     */
+    public T pick(double x, double y) {
+        ArrayList<Entry<T>> cell = cells.get(key(cell(x), cell(y)));
+        examined = cell == null ? 0 : cell.size();
+        if (cell == null) { return null; }
+
+        Entry<T> top = null;
+        for (Entry<T> entry : cell) {
+            if ((top == null || entry.z > top.z) && entry.contains(x, y) && geometry.hitTest(entry.shape, x, y)) {
+                top = entry;
+            }
+        }
+        return top == null ? null : top.shape;
+    }
+
+    /**
+     * Returns the number of shapes examined by the most recent {@link #pick(double, double)}.
+     *
+     * @return number of examined shapes
+     */
+    public int examined() {
+        return examined;
+    }
+
+    /**
+     * Finds all shapes whose bounds intersect the given rectangle. Only the cells
+     * overlapped by the rectangle are examined, so the cost is proportional to its area
+     * and the number of shapes around it, not to the size of the whole drawing.
+     *
+     * @param minX the minimum X coordinate of the rectangle
+     * @param minY the minimum Y coordinate of the rectangle
+     * @param maxX the maximum X coordinate of the rectangle
+     * @param maxY the maximum Y coordinate of the rectangle
+     * @param out  list receiving the found shapes, bottom to top
+     */
+    public void query(double minX, double minY, double maxX, double maxY, List<T> out) {
+        int stamp = ++queryStamp;
+        found.clear();
+        int cx1 = cell(maxX);
+        int cy1 = cell(maxY);
+        for (int cx = cell(minX); cx <= cx1; cx++) {
+            for (int cy = cell(minY); cy <= cy1; cy++) {
+                ArrayList<Entry<T>> cell = cells.get(key(cx, cy));
+                if (cell == null) { continue; }
+                for (Entry<T> entry : cell) {
+                    // Entries spanning several cells are reported once
+                    if (entry.stamp != stamp && entry.intersects(minX, minY, maxX, maxY)) {
+                        entry.stamp = stamp;
+                        found.add(entry);
+                    }
+                }
+            }
+        }
+        found.sort(Comparator.comparingLong(entry -> entry.z));
+        for (Entry<T> entry : found) {
+            out.add(entry.shape);
+        }
+        found.clear();
+    }
+
+    /**
+     * Registers an entry in all cells overlapped by its shape's current bounds.
+     *
+     * @param entry the entry to register
+     */
+    private void place(Entry<T> entry) {
+        Bounds bounds = geometry.bounds(entry.shape);
+        entry.minX = bounds.getMinX();
+        entry.minY = bounds.getMinY();
+        entry.maxX = bounds.getMaxX();
+        entry.maxY = bounds.getMaxY();
+        entry.cx0 = cell(entry.minX);
+        entry.cy0 = cell(entry.minY);
+        entry.cx1 = cell(entry.maxX);
+        entry.cy1 = cell(entry.maxY);
+        for (int cx = entry.cx0; cx <= entry.cx1; cx++) {
+            for (int cy = entry.cy0; cy <= entry.cy1; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+
+    /**
+     * Unregisters an entry from all cells it was placed in.
+     *
+     * @param entry the entry to unregister
+     */
+    private void unplace(Entry<T> entry) {
+        for (int cx = entry.cx0; cx <= entry.cx1; cx++) {
+            for (int cy = entry.cy0; cy <= entry.cy1; cy++) {
+                long key = key(cx, cy);
+                ArrayList<Entry<T>> cell = cells.get(key);
+                if (cell == null) { continue; }
+                cell.remove(entry);
+                if (cell.isEmpty()) { cells.remove(key); }
+            }
+        }
+    }
+
+    /**
+     * Links an unlinked entry into the z-order directly above another entry, giving it a stamp
+     * between those of its new neighbours. All stamps are renumbered if there is none left.
+     *
+     * @param entry the entry to link
+     * @param below the linked entry to place it above, or {@code null} to place it at the bottom
+     */
+    private void link(Entry<T> entry, Entry<T> below) {
+        Entry<T> above = below == null ? bottom : below.above;
+        entry.below = below;
+        entry.above = above;
+        if (below == null) { bottom = entry; } else { below.above = entry; }
+        if (above == null) { top = entry; } else { above.below = entry; }
+
+        if (below == null && above == null) {
+            entry.z = 0;
+        } else if (below == null) {
+            entry.z = above.z - GAP;
+        } else if (above == null) {
+            entry.z = below.z + GAP;
+        } else if (above.z - below.z > 1) {
+            entry.z = below.z + (above.z - below.z) / 2;
+        } else {
+            renumber();
+        }
+    }
+
+    /**
+     * Unlinks an entry from the z-order.
+     *
+     * @param entry the entry to unlink
+     */
+    private void unlink(Entry<T> entry) {
+        if (entry.below == null) { bottom = entry.above; } else { entry.below.above = entry.above; }
+        if (entry.above == null) { top = entry.below; } else { entry.above.below = entry.below; }
+        entry.below = null;
+        entry.above = null;
+    }
+
+    /**
+     * Spaces the z-order stamps of all entries evenly, bottom to top.
+     */
+    private void renumber() {
+        long z = 0;
+        for (Entry<T> entry = bottom; entry != null; entry = entry.above) {
+            entry.z = z;
+            z += GAP;
+        }
+    }
+
+    /**
+     * Returns the cell coordinate containing given position.
+     *
+     * @param v the position along one axis
+     * @return the cell coordinate along that axis
+     */
+    private int cell(double v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    /**
+     * Packs two cell coordinates into a single map key.
+     *
+     * @param cx the cell X coordinate
+     * @param cy the cell Y coordinate
+     * @return packed key
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Geometry of the indexed shapes.
+     *
+     * @param <T> the type of the indexed shapes
+     */
+    public interface Geometry<T> {
+
+        /**
+         * Returns the axis-aligned bounds of a shape in canvas coordinates.
+         *
+         * @param shape the shape
+         * @return bounds of the shape
+         */
+        Bounds bounds(T shape);
+
+        /**
+         * Checks whether point (x,y) lies within the exact geometry of a shape.
+         *
+         * @param shape the shape
+         * @param x     the X coordinate of the point
+         * @param y     the Y coordinate of the point
+         * @return {@code true} if the point lies within the shape, otherwise {@code false}
+         */
+        boolean hitTest(T shape, double x, double y);
+    }
+
+    /**
+     * An indexed shape together with its cached bounds and occupied cell range.
+     *
+     * @param <T> the type of the indexed shape
+     */
+    private static class Entry<T> {
+        /** The indexed shape. */
+        final T shape;
+        /** Z-order stamp; higher values are drawn on top. */
+        long z;
+        /** Neighbouring entries in the z-order, or {@code null} at the bottom and top. */
+        Entry<T> below, above;
+        /** Cached bounds of the shape in canvas coordinates. */
+        double minX, minY, maxX, maxY;
+        /** Range of cells the entry is placed in. */
+        int cx0, cy0, cx1, cy1;
+        /** Stamp of the last rectangle query that reported the entry. */
+        int stamp = 0;
+
+        /**
+         * Constructs an entry for given shape, not yet linked into the z-order.
+         *
+         * @param _shape the indexed shape
+         */
+        Entry(T _shape) {
+            shape = _shape;
+        }
+
+        /**
+         * Checks whether the cached bounds contain point (x,y).
+         *
+         * @param x the X coordinate of the point
+         * @param y the Y coordinate of the point
+         * @return {@code true} if the point is within the bounds, otherwise {@code false}
+         */
+        boolean contains(double x, double y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        /**
+         * Checks whether the cached bounds intersect the given rectangle.
+         *
+         * @param x0 the minimum X coordinate of the rectangle
+         * @param y0 the minimum Y coordinate of the rectangle
+         * @param x1 the maximum X coordinate of the rectangle
+         * @param y1 the maximum Y coordinate of the rectangle
+         * @return {@code true} if the bounds intersect the rectangle, otherwise {@code false}
+         */
+        boolean intersects(double x0, double y0, double x1, double y1) {
+            return minX <= x1 && maxX >= x0 && minY <= y1 && maxY >= y0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javafx.geometry.Bounds;
+
+/**
+ * Streaming writer exporting shapes as an SVG document.
+ *
+ * <p>Every shape is written as a single element straight into a buffered writer as soon as
+ * it is received, without building a document tree, so memory use does not depend on the
+ * size of the drawing. The translation, rotation and scale of a shape are mapped to the
+ * element's {@code transform} attribute, applied around the same center as on the
+ * {@link Circle}, {@link Rectangle} and {@link Polygon} nodes.</p>
+ */
+public class SvgWriter implements Closeable {
+    /** Size of the output buffer in characters. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The buffered output. */
+    private final Writer out;
+    /** Reusable buffer assembling a single element. */
+    private final StringBuilder element = new StringBuilder(256);
+
+    /**
+     * Opens a file for writing, truncating it, and writes the document header.
+     *
+     * @param file the file to write into
+     * @param area area of the canvas shown by the document
+     * @throws IOException if the file cannot be opened
+     */
+    public SvgWriter(File file, Bounds area) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8), BUFFER_SIZE);
+        double width = area.getWidth();
+        double height = area.getHeight();
+        element.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        number(width).append("\" height=\"");
+        number(height).append("\" viewBox=\"");
+        number(area.getMinX()).append(' ');
+        number(area.getMinY()).append(' ');
+        number(width).append(' ');
+        number(height).append("\">\n");
+        flushElement();
+    }
+
+    /**
+     * Writes a single shape as an SVG element. Shape types without a plain data
+     * implementation in {@link ShapeOps} are skipped.
+     *
+     * @param repr the shape to write
+     * @throws IOException if writing fails
+     */
+    public void write(Utils.ShapeRepr repr) throws IOException {
+        if (!ShapeOps.supports(repr.shapeType)) { return; }
+        if (repr.shapeType == Circle.class) {
+            element.append("<circle r=\"");
+            number(repr.args[0]).append('"');
+        } else if (repr.shapeType == Rectangle.class) {
+            element.append("<rect width=\"");
+            number(repr.args[0]).append("\" height=\"");
+            number(repr.args[1]).append('"');
+        } else {
+            element.append("<polygon points=\"");
+            for (int i = 2; i + 1 < repr.args.length; i += 2) {
+                if (i > 2) { element.append(' '); }
+                number(repr.args[i]).append(',');
+                number(repr.args[i+1]);
+            }
+            element.append('"');
+        }
+        fill(repr.color);
+        transform(repr);
+        element.append("/>\n");
+        flushElement();
+    }
+
+    /**
+     * Appends the fill attributes of an RGBA color.
+     *
+     * @param rgba the color packed as RGBA
+     */
+    private void fill(int rgba) {
+        element.append(" fill=\"#");
+        String hex = Integer.toHexString(rgba >>> 8);
+        for (int i = hex.length(); i < 6; i++) {
+            element.append('0');
+        }
+        element.append(hex).append('"');
+        int alpha = rgba & 0xFF;
+        if (alpha != 0xFF) {
+            element.append(" fill-opacity=\"");
+            number(alpha / 255.0).append('"');
+        }
+    }
+
+    /**
+     * Appends the transform attribute: translation to the shape's center, rotation,
+     * scale, and translation of the center back to the local origin.
+     * Identity parts are omitted.
+     *
+     * @param repr the shape
+     */
+    private void transform(Utils.ShapeRepr repr) {
+        double[] center = ShapeOps.center(repr);
+        double cx = center[0];
+        double cy = center[1];
+        element.append(" transform=\"translate(");
+        number(repr.x + cx).append(' ');
+        number(repr.y + cy).append(')');
+        if (repr.angle != 0) {
+            element.append(" rotate(");
+            number(repr.angle).append(')');
+        }
+        if (repr.scale != 1) {
+            element.append(" scale(");
+            number(repr.scale).append(')');
+        }
+        if (cx != 0 || cy != 0) {
+            element.append(" translate(");
+            number(-cx).append(' ');
+            number(-cy).append(')');
+        }
+        element.append('"');
+    }
+
+    /**
+     * Appends a number rounded to three decimal places, without a trailing fraction for integers.
+     *
+     * @param value the number
+     * @return the element buffer
+     */
+    private StringBuilder number(double value) {
+        long thousandths = Math.round(value * 1000);
+        if (thousandths % 1000 == 0) {
+            return element.append(thousandths / 1000);
+        }
+        return element.append(thousandths / 1000.0);
+    }
+
+    /**
+     * Writes the assembled element to the output and clears the element buffer.
+     *
+     * @throws IOException if writing fails
+     */
+    private void flushElement() throws IOException {
+        out.append(element);
+        element.setLength(0);
+    }
+
+    /**
+     * Writes the document footer and closes the file.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write("</svg>\n");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javafx.geometry.Bounds;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * A drawing surface split into square tiles, each rendered into its own canvas image.
+ *
+ * <p>Tiles keep their content between frames. Changes mark only the tiles intersecting
+ * the changed area as dirty, and {@link #redraw()} re-renders just those tiles, so a shape
+ * being dragged across a large drawing costs a few tiles per frame instead of a full repaint.</p>
+ */
+public class TileCache {
+    /** Side length of a single tile. */
+    private final int tileSize;
+    /** Number of tile columns and rows. */
+    private final int columns, rows;
+    /** Tile images, row by row. */
+    private final Canvas[] tiles;
+    /** Whether each tile needs to be re-rendered, row by row. */
+    private final boolean[] dirty;
+    /** Number of dirty tiles. */
+    private int dirtyCount = 0;
+    /** Renderer drawing the content of a tile. */
+    private final Renderer renderer;
+
+    /**
+     * Constructs a tile cache covering given area, with all tiles dirty.
+     *
+     * @param _width    width of the covered area
+     * @param _height   height of the covered area
+     * @param _tileSize side length of a single tile
+     * @param _renderer renderer drawing the content of a tile
+     */
+    public TileCache(double _width, double _height, int _tileSize, Renderer _renderer) {
+        tileSize = _tileSize;
+        renderer = _renderer;
+        columns = (int) Math.ceil(_width / tileSize);
+        rows = (int) Math.ceil(_height / tileSize);
+        tiles = new Canvas[columns * rows];
+        dirty = new boolean[columns * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                Canvas tile = new Canvas(Math.min(tileSize, _width - column*tileSize), Math.min(tileSize, _height - row*tileSize));
+                tile.relocate(column*tileSize, row*tileSize);
+                tiles[row*columns + column] = tile;
+            }
+        }
+        Arrays.fill(dirty, true);
+        dirtyCount = tiles.length;
+    }
+
+    /**
+     * Returns the tile images, which have to be added to the scene graph by the caller.
+     *
+     * @return the tile images, positioned at their place in the covered area
+     */
+    public List<Canvas> tiles() {
+        return List.of(tiles);
+    }
+
+    /**
+     * Marks all tiles intersecting given bounds as dirty.
+     *
+     * @param bounds the changed area
+     */
+    public void invalidate(Bounds bounds) {
+        int column0 = Math.max(0, (int) Math.floor(bounds.getMinX() / tileSize));
+        int row0 = Math.max(0, (int) Math.floor(bounds.getMinY() / tileSize));
+        int column1 = Math.min(columns-1, (int) Math.floor(bounds.getMaxX() / tileSize));
+        int row1 = Math.min(rows-1, (int) Math.floor(bounds.getMaxY() / tileSize));
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                markDirty(row*columns + column);
+            }
+        }
+    }
+
+    /**
+     * Marks all tiles as dirty.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < tiles.length; i++) {
+            markDirty(i);
+        }
+    }
+
+    /**
+     * Checks whether any tile needs to be re-rendered.
+     *
+     * @return {@code true} if some tile is dirty, otherwise {@code false}
+     */
+    public boolean isDirty() {
+        return dirtyCount > 0;
+    }
+
+    /**
+     * Re-renders all dirty tiles.
+     *
+     * @return number of re-rendered tiles
+     */
+    public int redraw() {
+        int redrawn = dirtyCount;
+        for (int i = 0; i < tiles.length && dirtyCount > 0; i++) {
+            if (!dirty[i]) { continue; }
+            Canvas tile = tiles[i];
+            double minX = tile.getLayoutX();
+            double minY = tile.getLayoutY();
+            GraphicsContext gc = tile.getGraphicsContext2D();
+            gc.clearRect(0, 0, tile.getWidth(), tile.getHeight());
+            gc.save();
+            gc.translate(-minX, -minY);
+            renderer.render(gc, minX, minY, minX + tile.getWidth(), minY + tile.getHeight());
+            gc.restore();
+            dirty[i] = false;
+            dirtyCount--;
+        }
+        return redrawn;
+    }
+
+    /**
+     * Marks a single tile as dirty.
+     *
+     * @param i index of the tile
+     */
+    private void markDirty(int i) {
+        if (!dirty[i]) {
+            dirty[i] = true;
+            dirtyCount++;
+        }
+    }
+
+    /**
+     * Draws the content of a tile.
+     */
+    public interface Renderer {
+
+        /**
+         * Draws everything intersecting the given area. The graphics context is already
+         * translated, so drawing uses the coordinates of the whole covered area, and
+         * anything outside of the tile is clipped.
+         *
+         * @param gc   the graphics context of the tile
+         * @param minX the minimum X coordinate of the tile
+         * @param minY the minimum Y coordinate of the tile
+         * @param maxX the maximum X coordinate of the tile
+         * @param maxY the maximum Y coordinate of the tile
+         */
+        void render(GraphicsContext gc, double minX, double minY, double maxX, double maxY);
+    }
+}
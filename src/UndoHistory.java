@@ -0,0 +1,139 @@
+import java.util.ArrayDeque;
+
+/**
+ * A memory-bounded undo/redo history of compact edit commands.
+ *
+ * <p>Consecutive commands of one gesture, like the events of a single drag, are coalesced
+ * into one command until the history is sealed. When the estimated size of all stored
+ * commands exceeds the capacity, the oldest commands are evicted first.</p>
+ */
+public class UndoHistory {
+    /** Commands that can be undone, oldest first. */
+    private final ArrayDeque<Command> undoStack = new ArrayDeque<>();
+    /** Commands that can be redone, most recently undone last. */
+    private final ArrayDeque<Command> redoStack = new ArrayDeque<>();
+    /** Maximum estimated size of all stored commands in bytes. */
+    private final long capacity;
+    /** Estimated size of all stored commands in bytes. */
+    private long size = 0;
+    /** Whether the next recorded command must not be merged into the previous one. */
+    private boolean sealed = true;
+
+    /**
+     * Constructs an empty history.
+     *
+     * @param _capacity maximum estimated size of all stored commands in bytes
+     */
+    public UndoHistory(long _capacity) {
+        capacity = _capacity;
+    }
+
+    /**
+     * Records an already applied command, merging it into the previous command
+     * if both belong to the same gesture. Clears all commands that could be redone.
+     *
+     * @param command the applied command
+     */
+    public void record(Command command) {
+        for (Command undone : redoStack) {
+            size -= undone.size();
+        }
+        redoStack.clear();
+
+        if (!sealed && !undoStack.isEmpty() && undoStack.peekLast().merge(command)) { return; }
+        undoStack.addLast(command);
+        size += command.size();
+        sealed = false;
+
+        while (size > capacity && !undoStack.isEmpty()) {
+            size -= undoStack.pollFirst().size();
+        }
+    }
+
+    /**
+     * Ends the current gesture, so that the next recorded command starts a new entry.
+     */
+    public void seal() {
+        sealed = true;
+    }
+
+    /**
+     * Reverts the most recent command.
+     *
+     * @return {@code true} if a command was undone, {@code false} if there was nothing to undo
+     */
+    public boolean undo() {
+        sealed = true;
+        Command command = undoStack.pollLast();
+        if (command == null) { return false; }
+        command.undo();
+        redoStack.addLast(command);
+        return true;
+    }
+
+    /**
+     * Applies the most recently undone command again.
+     *
+     * @return {@code true} if a command was redone, {@code false} if there was nothing to redo
+     */
+    public boolean redo() {
+        sealed = true;
+        Command command = redoStack.pollLast();
+        if (command == null) { return false; }
+        command.redo();
+        undoStack.addLast(command);
+        return true;
+    }
+
+    /**
+     * Removes all commands.
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        size = 0;
+        sealed = true;
+    }
+
+    /**
+     * Returns the estimated size of all stored commands.
+     *
+     * @return estimated size in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * A reversible edit command storing only the change it made.
+     */
+    public interface Command {
+
+        /**
+         * Reverts the change.
+         */
+        void undo();
+
+        /**
+         * Applies the change again.
+         */
+        void redo();
+
+        /**
+         * Returns the estimated memory footprint of the command.
+         *
+         * @return estimated size in bytes
+         */
+        long size();
+
+        /**
+         * Tries to absorb a command following this one within the same gesture.
+         *
+         * @param next the following command
+         * @return {@code true} if the command was absorbed, otherwise {@code false}
+         */
+        default boolean merge(Command next) {
+            return false;
+        }
+    }
+}
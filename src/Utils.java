@@ -1,3 +1,7 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import javafx.scene.paint.Color;
@@ -22,6 +26,57 @@ public class Utils {
         return Math.sqrt(Math.pow(x0 - x1, 2) + Math.pow(y0 - y1, 2));
     }
 
+    /**
+     * Packs a color into a single RGBA integer, 8 bits per channel with red in the highest byte.
+     *
+     * @param color the color to pack
+     * @return packed RGBA value
+     */
+    public static int toRgba(Color color) {
+        return ((int) Math.round(color.getRed() * 255) << 24)
+            | ((int) Math.round(color.getGreen() * 255) << 16)
+            | ((int) Math.round(color.getBlue() * 255) << 8)
+            | (int) Math.round(color.getOpacity() * 255);
+    }
+
+    /**
+     * Unpacks a color from a single RGBA integer created by {@link #toRgba(Color)}.
+     * The color is shared through the {@link Palette}.
+     *
+     * @param rgba packed RGBA value
+     * @return the unpacked color
+     */
+    public static Color fromRgba(int rgba) {
+        return Palette.color(rgba);
+    }
+
+    /**
+     * Computes the winding number of a closed polygon around point (x,y).
+     * A non-zero result means the point lies inside the polygon under the non-zero fill rule.
+     *
+     * @param points polygon vertices stored as consecutive x,y pairs
+     * @param x      x-coordinate of the point
+     * @param y      y-coordinate of the point
+     * @return the winding number of the polygon around the point
+     */
+    public static int windingNumber(double[] points, double x, double y) {
+        int winding = 0;
+        int n = points.length;
+        for (int i = 0; i < n; i += 2) {
+            double x0 = points[i];
+            double y0 = points[i+1];
+            double x1 = points[(i+2) % n];
+            double y1 = points[(i+3) % n];
+            double side = (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0);
+            if (y0 <= y) {
+                if (y1 > y && side > 0) { winding++; }
+            } else {
+                if (y1 <= y && side < 0) { winding--; }
+            }
+        }
+        return winding;
+    }
+
     /**
      * Initializes given shape at point (x,y) and provided color.
      * 
@@ -29,18 +84,13 @@ public class Utils {
      * @param x     origin x coordinate
      * @param y     origin y coordinate
      * @param color shape's fill color
-     * @return      {@code Shape} initialazed with given parameters, or {@code null} initialization was unsuccessfull
+     * @return      {@code Shape} initialazed with given parameters
+     * @throws IllegalArgumentException if the shape class is not a registered {@link ShapeType}
      */
     public static Shape createShape(Class<?> clazz, double x, double y, Color color) {
-        try {
-            Shape shape = (Shape) clazz.getConstructor(double.class, double.class).newInstance(x, y);
-            shape.setFill(color);
-            shape.setStrokeWidth(5);
-            return shape;
-        } catch (Exception e) {
-            System.out.println(e.getStackTrace());
-        }
-        return null;
+        ShapeType type = ShapeRegistry.byClass(clazz);
+        if (type == null) { throw new IllegalArgumentException("Unknown shape type: " + clazz); }
+        return ShapeRegistry.create(type, x, y, color);
     }
 
 
@@ -95,13 +145,28 @@ public class Utils {
 
     /**
      * A serializable representation of a shape.
+     *
+     * <p>The Java serialized form is kept identical to the one used by older versions of
+     * the application, so that drawings saved by them can still be deserialized.</p>
      */
     public static class ShapeRepr implements Serializable {
+        private static final long serialVersionUID = 8921022184834463048L;
+
+        /** Fields of the legacy serialized form. */
+        private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("shapeType", Class.class),
+            new ObjectStreamField("color", String.class),
+            new ObjectStreamField("x", double.class),
+            new ObjectStreamField("y", double.class),
+            new ObjectStreamField("angle", double.class),
+            new ObjectStreamField("scale", double.class),
+            new ObjectStreamField("args", Double[].class),
+        };
 
         /** Shape type */
         Class<? extends Shape> shapeType;
-        /** Shape color */
-        String color;
+        /** Shape color packed by {@link Utils#toRgba(Color)} */
+        int color;
         /** Shape's X translation */
         double x;
         /** Shape's Y translation */
@@ -111,7 +176,7 @@ public class Utils {
         /** Shape's scale factor */
         double scale;
         /** Shape specific parameters */
-        Double[] args;
+        double[] args;
 
         /**
          * Recreate a shape based on the representation.
@@ -119,15 +184,72 @@ public class Utils {
          * @return recreated shape
          */
         public Shape recreate() {
-            Shape shape = Utils.createShape(shapeType, x, y, Color.web(color));
-            shape.setTranslateX(x);
-            shape.setTranslateY(y);
-            shape.setRotate(angle);
-            shape.setScaleX(scale);
-            shape.setScaleY(scale);
-            ((Repr) shape).recreate(args);
+            Shape shape = createShape(shapeType, x, y, Utils.fromRgba(color));
+            ((Repr) shape).recreate(angle, scale, args);
 
             return shape;
         }
+
+        /**
+         * Creates an independent copy of the representation.
+         *
+         * @return the copy
+         */
+        public ShapeRepr copy() {
+            ShapeRepr repr = new ShapeRepr();
+            repr.shapeType = shapeType;
+            repr.color = color;
+            repr.x = x;
+            repr.y = y;
+            repr.angle = angle;
+            repr.scale = scale;
+            repr.args = args.clone();
+            return repr;
+        }
+
+        /**
+         * Writes the representation in the legacy serialized form.
+         *
+         * @param out the stream to write into
+         * @throws IOException if writing fails
+         */
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            Double[] boxed = new Double[args.length];
+            for (int i = 0; i < args.length; i++) {
+                boxed[i] = args[i];
+            }
+            ObjectOutputStream.PutField fields = out.putFields();
+            fields.put("shapeType", shapeType);
+            fields.put("color", Utils.fromRgba(color).toString());
+            fields.put("x", x);
+            fields.put("y", y);
+            fields.put("angle", angle);
+            fields.put("scale", scale);
+            fields.put("args", boxed);
+            out.writeFields();
+        }
+
+        /**
+         * Reads the representation from the legacy serialized form.
+         *
+         * @param in the stream to read from
+         * @throws IOException if reading fails
+         * @throws ClassNotFoundException if the shape class cannot be found
+         */
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            ObjectInputStream.GetField fields = in.readFields();
+            shapeType = (Class<? extends Shape>) fields.get("shapeType", null);
+            color = Utils.toRgba(Color.web((String) fields.get("color", null)));
+            x = fields.get("x", 0.0);
+            y = fields.get("y", 0.0);
+            angle = fields.get("angle", 0.0);
+            scale = fields.get("scale", 1.0);
+            Double[] boxed = (Double[]) fields.get("args", null);
+            args = new double[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                args[i] = boxed[i];
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * A growable store of 2D vertices backed by a primitive {@code double[]}.
+ *
+ * <p>Coordinates are stored as consecutive x,y pairs without boxing, and all read,
+ * write and iteration methods are allocation-free; only growing the store reallocates
+ * its array, with amortized constant cost per added vertex.</p>
+ */
+public class VertexBuffer {
+    /** Vertex coordinates stored as consecutive x,y pairs. */
+    private double[] coords;
+    /** Number of used coordinates, twice the number of vertices. */
+    private int length = 0;
+
+    /**
+     * Constructs an empty buffer.
+     *
+     * @param _capacity number of vertices the buffer can hold before growing
+     */
+    public VertexBuffer(int _capacity) {
+        coords = new double[Math.max(2, _capacity * 2)];
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return number of vertices
+     */
+    public int size() {
+        return length / 2;
+    }
+
+    /**
+     * Returns the X coordinate of a vertex.
+     *
+     * @param i index of the vertex
+     * @return the X coordinate
+     */
+    public double x(int i) {
+        return coords[2*i];
+    }
+
+    /**
+     * Returns the Y coordinate of a vertex.
+     *
+     * @param i index of the vertex
+     * @return the Y coordinate
+     */
+    public double y(int i) {
+        return coords[2*i + 1];
+    }
+
+    /**
+     * Replaces a vertex.
+     *
+     * @param i index of the vertex
+     * @param x the new X coordinate
+     * @param y the new Y coordinate
+     */
+    public void set(int i, double x, double y) {
+        coords[2*i] = x;
+        coords[2*i + 1] = y;
+    }
+
+    /**
+     * Appends a vertex.
+     *
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     */
+    public void add(double x, double y) {
+        ensureCapacity(length + 2);
+        coords[length++] = x;
+        coords[length++] = y;
+    }
+
+    /**
+     * Appends vertices stored as consecutive x,y pairs in a range of an array.
+     *
+     * @param src  the array holding the coordinates
+     * @param from index of the first coordinate, inclusive
+     * @param to   index of the last coordinate, exclusive
+     */
+    public void addAll(double[] src, int from, int to) {
+        ensureCapacity(length + to - from);
+        System.arraycopy(src, from, coords, length, to - from);
+        length += to - from;
+    }
+
+    /**
+     * Removes the last vertex.
+     */
+    public void removeLast() {
+        length -= 2;
+    }
+
+    /**
+     * Removes all vertices, keeping the allocated array.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Copies all coordinates, as consecutive x,y pairs, into an array.
+     *
+     * @param dst    the destination array
+     * @param offset position in the destination array to copy the first coordinate to
+     */
+    public void copyTo(double[] dst, int offset) {
+        System.arraycopy(coords, 0, dst, offset, length);
+    }
+
+    /**
+     * Passes every vertex to an action, in order.
+     *
+     * @param action the action receiving the coordinates of each vertex
+     */
+    public void forEach(VertexConsumer action) {
+        for (int i = 0; i < length; i += 2) {
+            action.accept(coords[i], coords[i+1]);
+        }
+    }
+
+    /**
+     * Grows the backing array to hold at least given number of coordinates.
+     *
+     * @param capacity required number of coordinates
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(capacity, coords.length * 2));
+        }
+    }
+
+    /**
+     * An action receiving the coordinates of a vertex.
+     */
+    public interface VertexConsumer {
+
+        /**
+         * Receives the coordinates of a vertex.
+         *
+         * @param x the X coordinate
+         * @param y the Y coordinate
+         */
+        void accept(double x, double y);
+    }
+}